@@ -67,6 +67,8 @@ public class FaceClothMultiTouch extends PApplet {
 
 	private boolean clearFrame = true;
 	private boolean fadeFrame = false;
+	private float fadeHalfLife = 0.25f;  // seconds for the previous frames to lose half their brightness
+	private long lastFadeTime = -1;
 	private boolean drawHandles = false;  // handled externally so that the handles are not drawn in the ImageCloth FBO
 
 	// cloth handles
@@ -356,8 +358,12 @@ public class FaceClothMultiTouch extends PApplet {
 				// erase the previous frame
 				background(0);
 			} else if (fadeFrame) {
-				// fade out the previous frames
-				fill(0, 0, 0, 20);
+				// fade out the previous frames by the real time elapsed, whatever the frame rate
+				long now = System.nanoTime();
+				float elapsed = (lastFadeTime < 0) ? 0 : (now-lastFadeTime)/1e9f;
+				lastFadeTime = now;
+				noStroke();
+				fill(0, 0, 0, 255*(1-(float)Math.pow(0.5, elapsed/fadeHalfLife)));
 				rect(0, 0, width, height);
 			}
 			faceCloth.draw();
@@ -538,6 +544,7 @@ public class FaceClothMultiTouch extends PApplet {
 	}
 	public void toggleFadeFrame() { 
 		fadeFrame = !fadeFrame; 
+		lastFadeTime = -1;
 		if (fadeFrame) clearFrame = false;
 	}
 	public void toggleDrawHandles() { drawHandles = !drawHandles; }
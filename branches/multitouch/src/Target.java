@@ -11,6 +11,10 @@ public class Target {
 	private float yPos;
 	private float zPos;
 	
+	// the glyph as triangles around the target point, tessellated once
+	private static final int CAP_SEGMENTS = 8;
+	private static final float[] GLYPH = tessellate();
+	
 	public Target() {
 		
 	}
@@ -23,19 +27,43 @@ public class Target {
 	
 	public void draw(PApplet p) {
 		if(currStatus){
-			p.pushMatrix();
-			p.translate(xPos, yPos);
 			p.fill(255, 255, 0, 70);
 			p.smooth();
 	    	p.noStroke();
-	    	for (int i=0; i < 4; i++) {
-	    		p.rotate(p.PI/2*i);
-		    	p.bezier(-5, -20,  -3, -23,  3, -23,  5, -20);	
-		    	p.triangle(-5, -20, +5, -20, 0, -10);
-		    	
+	    	p.beginShape(PApplet.TRIANGLES);
+	    	for (int n=0; n < GLYPH.length; n += 2) {
+	    		p.vertex(xPos+GLYPH[n], yPos+GLYPH[n+1]);
 	    	}
-	    	p.popMatrix();
+	    	p.endShape();
+		}
+	}
+	
+	/**
+	 * Tessellates the four arms of the target once: each arm is a fan of triangles from its tip
+	 * to its rounded Bezier cap.
+	 */
+	private static float[] tessellate() {
+		float[] t = new float[4*CAP_SEGMENTS*6];
+		int n = 0;
+		for (int arm=0; arm < 4; arm++) {
+			float cos = (float)Math.cos(Math.PI/2*arm);
+			float sin = (float)Math.sin(Math.PI/2*arm);
+			float pX = -5, pY = -20;
+			for (int s=1; s <= CAP_SEGMENTS; s++) {
+				float u = s/(float)CAP_SEGMENTS;
+				float v = 1-u;
+				float qX = v*v*v*-5 + 3*v*v*u*-3 + 3*v*u*u*3 + u*u*u*5;
+				float qY = v*v*v*-20 + 3*v*v*u*-23 + 3*v*u*u*-23 + u*u*u*-20;
+				float[] corners = { 0, -10, pX, pY, qX, qY };
+				for (int c=0; c < 6; c += 2) {
+					t[n++] = corners[c]*cos - corners[c+1]*sin;
+					t[n++] = corners[c]*sin + corners[c+1]*cos;
+				}
+				pX = qX;
+				pY = qY;
+			}
 		}
+		return t;
 	}
 	
 	public void setStatus (boolean val){ currStatus = val;}
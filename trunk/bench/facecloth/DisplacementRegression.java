@@ -0,0 +1,100 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Checks the DisplacementGLRenderer against the SoftwareRenderer, so that its shader can be
+ * tested without a graphics card.
+ * <p>The sketch draws the still of RenderRegression through the displacement shader, reads the
+ * window back and compares it with the same cloth drawn by the SoftwareRenderer on the same
+ * smooth surface: the render grid of the shader is set to the size of the SubdividedSurface, both
+ * are bicubic Catmull-Rom patches over the mesh, and both are depth tested. The rasterisers still
+ * round edges differently, so a pixel matches when one of the software pixels around it is
+ * within COLOUR_TOLERANCE of it, and up to MAX_DIFFERENT of the pixels may fail.</p>
+ * <p>To run it on Mesa's software OpenGL, without a graphics card or a screen:</p>
+ * <pre>LIBGL_ALWAYS_SOFTWARE=1 xvfb-run -s "-screen 0 1024x768x24" java facecloth.DisplacementRegression</pre>
+ * <p>It exits with 0 if the images match and 1 if they do not, leaving the two stills next to
+ * each other in DisplacementRegression.failed.png.</p>
+ */
+/* $Id$ */
+public class DisplacementRegression extends PApplet {
+	public static final int SUBDIVISIONS = 4;
+	public static final int COLOUR_TOLERANCE = 48;
+	public static final float MAX_DIFFERENT = (float)0.02;
+
+	/**
+	 * Runs the check in a sketch window.
+	 *
+	 * @param args unused
+	 */
+	public static void main(String[] args) {
+		PApplet.main(new String[] { "facecloth.DisplacementRegression" });
+	}
+
+	public void setup() {
+		size(RenderRegression.WIDTH, RenderRegression.HEIGHT, OPENGL);
+		noLoop();
+	}
+
+	public void draw() {
+		int renderSize = (RenderRegression.MESH_SIZE-1)*SUBDIVISIONS+1;
+		ImageCloth cloth = new ImageCloth(this, RenderRegression.checkerboard(this), 0xffffff00, RenderRegression.MESH_SIZE, 400, 300, 0, 0);
+		RenderRegression.pose(cloth);
+
+		// the shader
+		background(0);
+		cloth.setRenderer(new DisplacementGLRenderer(this, renderSize));
+		cloth.draw();
+		loadPixels();
+		int[] gl = pixels.clone();
+
+		// the same surface in software
+		SoftwareRenderer software = new SoftwareRenderer(width, height);
+		cloth.setRenderer(software);
+		cloth.setSubdivisions(SUBDIVISIONS);
+		software.clear(0xff000000);
+		cloth.draw();
+		int[] reference = software.getPixels();
+
+		int different = 0;
+		for (int y=0; y < height; y++) {
+			for (int x=0; x < width; x++) {
+				if (!matches(gl[y*width+x], reference, x, y)) different++;
+			}
+		}
+		float fraction = different/(float)(width*height);
+		println("pixels different from the SoftwareRenderer: "+different+" ("+(fraction*100)+"%)");
+
+		if (fraction > MAX_DIFFERENT) {
+			PImage both = createImage(width*2, height, RGB);
+			both.loadPixels();
+			for (int y=0; y < height; y++) {
+				System.arraycopy(gl, y*width, both.pixels, y*width*2, width);
+				System.arraycopy(reference, y*width, both.pixels, y*width*2+width, width);
+			}
+			both.updatePixels();
+			both.save(sketchPath("DisplacementRegression.failed.png"));
+			println("FAILED, the shader on the left, the software on the right, in DisplacementRegression.failed.png");
+			System.exit(1);
+		}
+		println("passed");
+		System.exit(0);
+	}
+
+	/**
+	 * Checks whether a pixel is close to one of the reference pixels around it.
+	 */
+	private boolean matches(int colour, int[] reference, int x, int y) {
+		for (int dy=-1; dy <= 1; dy++) {
+			for (int dx=-1; dx <= 1; dx++) {
+				int rx = x+dx, ry = y+dy;
+				if (rx < 0 || rx >= width || ry < 0 || ry >= height) continue;
+				int r = reference[ry*width+rx];
+				if (Math.abs(((colour >> 16) & 0xff)-((r >> 16) & 0xff)) <= COLOUR_TOLERANCE
+						&& Math.abs(((colour >> 8) & 0xff)-((r >> 8) & 0xff)) <= COLOUR_TOLERANCE
+						&& Math.abs((colour & 0xff)-(r & 0xff)) <= COLOUR_TOLERANCE) return true;
+			}
+		}
+		return false;
+	}
+}
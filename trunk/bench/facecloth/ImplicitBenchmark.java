@@ -0,0 +1,62 @@
+package facecloth;
+
+/**
+ * Compares the stability and cost of the implicit solver with the explicit Runge-Kutta one.
+ * <p>For a range of spring strengths and time steps, both solvers run the same hanging cloth for
+ * the same amount of simulated time. The table shows the time per step, the time per simulated
+ * time unit, and whether the cloth stayed bounded. The SpringSolver uses the integration of the
+ * traer ParticleSystem ImageCloth used to run on.</p>
+ * <p>Usage: java facecloth.ImplicitBenchmark [meshSize] [simulatedTime]</p>
+ */
+/* $Id$ */
+public class ImplicitBenchmark {
+	public static final float[] STRENGTHS = { 8, 80, 800 };
+	public static final float[] TIME_STEPS = { 0.1f, 0.25f, 0.5f, 1, 2 };
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the mesh size and the simulated time per run
+	 */
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		float duration = args.length > 1 ? Float.parseFloat(args[1]) : 50;
+
+		System.out.println("mesh "+size+", "+duration+" time units per run");
+		System.out.println("solver    strength    dt  ms/step  ms/unit  stable  cg its");
+		for (int s=0; s < STRENGTHS.length; s++) {
+			for (int t=0; t < TIME_STEPS.length; t++) {
+				for (int solver=0; solver < 2; solver++) {
+					ClothSolver cs = (solver == 0) ? new SpringSolver() : new ImplicitSolver();
+					ClothMesh mesh = SolverBenchmark.buildMesh(size, STRENGTHS[s]);
+					int steps = Math.max(1, (int)(duration/TIME_STEPS[t]));
+
+					long start = System.nanoTime();
+					int its = 0;
+					boolean stable = true;
+					for (int i=0; i < steps && stable; i++) {
+						cs.step(mesh, TIME_STEPS[t]);
+						if (cs instanceof ImplicitSolver) its += ((ImplicitSolver)cs).getIterations();
+						stable = isBounded(mesh);
+					}
+					double ms = (System.nanoTime()-start)/1e6;
+
+					System.out.println(String.format("%-8s  %8.0f  %4.2f  %7.3f  %7.3f  %-6s  %s",
+							(solver == 0) ? "rk4" : "implicit", STRENGTHS[s], TIME_STEPS[t], ms/steps, ms/duration, stable,
+							(solver == 0) ? "-" : String.format("%.1f", its/(float)steps)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that every particle is a finite number and still near the window.
+	 */
+	static boolean isBounded(ClothMesh mesh) {
+		for (int k=0; k < mesh.count; k++) {
+			float x = mesh.x[k], y = mesh.y[k], z = mesh.z[k];
+			if (Float.isNaN(x+y+z) || Math.abs(x) > 1e5f || Math.abs(y) > 1e5f || Math.abs(z) > 1e5f) return false;
+		}
+		return true;
+	}
+}
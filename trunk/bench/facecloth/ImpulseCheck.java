@@ -0,0 +1,89 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Checks that velocities pushed from another thread while the sketch steps the cloth are kept.
+ * <p>A weightless, undamped cloth with every point free is stepped from the main thread while a
+ * second thread, standing in for the capture thread of a MotionFlow, adds the same velocity to
+ * every point again and again with ImageCloth.addMeshVelocities(). The springs only move
+ * momentum between the particles, so once both are done the momentum of the cloth must be the
+ * sum of the pushes. A push that lands in the middle of a step is lost or counted twice, and
+ * shows as a difference.</p>
+ * <p>The PApplet is never started, see RenderRegression.</p>
+ * <p>Usage: java facecloth.ImpulseCheck [steps] [pushes]</p>
+ */
+/* $Id$ */
+public class ImpulseCheck {
+	public static final int MESH_SIZE = 20;
+	public static final float PUSH = (float)0.01;
+	public static final float TOLERANCE = (float)0.001;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args the number of steps and the number of pushes
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		final int pushes = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+		PApplet p = new PApplet();
+		p.width = 640;
+		p.height = 480;
+		final ImageCloth cloth = new ImageCloth(p, p.createImage(32, 32, PApplet.RGB), 0, MESH_SIZE, 320, 240, 0, 0);
+		for (int h=0; h < 4; h++) {
+			cloth.freeHandle(h);
+		}
+		// keep stepping, the pushes wake it up anyway
+		cloth.setSleepSpeed(0);
+
+		final float[] dvx = new float[MESH_SIZE*MESH_SIZE];
+		java.util.Arrays.fill(dvx, PUSH);
+		final float[] dvy = new float[MESH_SIZE*MESH_SIZE];
+		Thread pusher = new Thread("ImpulseCheck pusher") {
+			public void run() {
+				for (int n=0; n < pushes; n++) {
+					cloth.addMeshVelocities(dvx, dvy, null, MESH_SIZE);
+					Thread.yield();
+				}
+			}
+		};
+
+		double expected = momentum(cloth);
+		pusher.start();
+		for (int s=0; s < steps; s++) {
+			cloth.step();
+		}
+		pusher.join();
+
+		ClothMesh mesh = cloth.getMesh();
+		double mass = 0;
+		for (int k=0; k < mesh.count; k++) {
+			mass += mesh.mass[k];
+		}
+		expected += mass*PUSH*pushes;
+		double momentum = momentum(cloth);
+		double error = Math.abs(momentum-expected)/expected;
+		System.out.println("momentum "+momentum+", expected "+expected+", relative error "+error);
+		if (error > TOLERANCE) {
+			System.out.println("FAILED, pushes were lost");
+			System.exit(1);
+		}
+		System.out.println("passed");
+	}
+
+	/**
+	 * Sums the momentum of the cloth along x.
+	 */
+	private static double momentum(ImageCloth cloth) {
+		synchronized (cloth) {
+			ClothMesh mesh = cloth.getMesh();
+			double sum = 0;
+			for (int k=0; k < mesh.count; k++) {
+				sum += mesh.mass[k]*mesh.vx[k];
+			}
+			return sum;
+		}
+	}
+}
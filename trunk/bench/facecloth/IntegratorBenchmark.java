@@ -0,0 +1,99 @@
+package facecloth;
+
+/**
+ * Compares the integrators of the SpringSolver.
+ * <p>For each mesh size and integrator, the table shows the time per step, the largest time step
+ * for which the hanging cloth stays bounded and calms down, and the time per simulated time unit
+ * when running at that step. The largest stable time step is found by bisection, each trial
+ * running the same amount of simulated time.</p>
+ * <p>Usage: java facecloth.IntegratorBenchmark [steps] [simulatedTime]</p>
+ */
+/* $Id$ */
+public class IntegratorBenchmark {
+	public static final int[] MESH_SIZES = { 20, 50, 100 };
+	public static final int[] INTEGRATORS = { SpringSolver.RUNGE_KUTTA, SpringSolver.MODIFIED_EULER, SpringSolver.SYMPLECTIC_EULER };
+	public static final String[] NAMES = { "rk4", "modified euler", "symplectic euler" };
+
+	// the bisection range and depth for the stable time step
+	public static final float MIN_TIME_STEP = (float)0.01;
+	public static final float MAX_TIME_STEP = 4;
+	public static final int SEARCH_ITERATIONS = 8;
+
+	// a cloth still moving faster than this at the end of a trial is ringing, not settling
+	public static final float SPEED_LIMIT = 10;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of timed steps and the simulated time per stability trial
+	 */
+	public static void main(String[] args) {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		float duration = args.length > 1 ? Float.parseFloat(args[1]) : 60;
+
+		System.out.println(steps+" timed steps, "+duration+" time units per stability trial");
+		// warm the JIT up on a small mesh first
+		for (int i=0; i < INTEGRATORS.length; i++) {
+			time(new SpringSolver(INTEGRATORS[i]), MESH_SIZES[0], MIN_TIME_STEP, steps);
+		}
+
+		System.out.println("mesh  integrator        ms/step  max dt  ms/unit");
+		for (int m=0; m < MESH_SIZES.length; m++) {
+			for (int i=0; i < INTEGRATORS.length; i++) {
+				SpringSolver solver = new SpringSolver(INTEGRATORS[i]);
+				float maxStep = maxStableStep(solver, MESH_SIZES[m], duration);
+				// time a stable run, exploding floats do not cost the same
+				double ms = time(solver, MESH_SIZES[m], Math.max(maxStep, MIN_TIME_STEP), steps);
+
+				System.out.println(String.format("%4d  %-16s  %7.3f  %6.3f  %s",
+						MESH_SIZES[m], NAMES[i], ms, maxStep, (maxStep > 0) ? String.format("%7.3f", ms/maxStep) : "-"));
+			}
+		}
+	}
+
+	/**
+	 * Runs a fresh hanging cloth and gets the average time per step.
+	 *
+	 * @return the time per step (in milliseconds)
+	 */
+	static double time(ClothSolver solver, int size, float dt, int steps) {
+		ClothMesh mesh = SolverBenchmark.buildMesh(size);
+		long start = System.nanoTime();
+		for (int i=0; i < steps; i++) {
+			solver.step(mesh, dt);
+		}
+		return (System.nanoTime()-start)/1e6/steps;
+	}
+
+	/**
+	 * Finds the largest time step for which a cloth stays bounded and calms down.
+	 *
+	 * @return the largest stable time step, or 0 if even the smallest one is unstable
+	 */
+	static float maxStableStep(ClothSolver solver, int size, float duration) {
+		if (isStable(solver, size, MAX_TIME_STEP, duration)) return MAX_TIME_STEP;
+		if (!isStable(solver, size, MIN_TIME_STEP, duration)) return 0;
+
+		float stable = MIN_TIME_STEP;
+		float unstable = MAX_TIME_STEP;
+		for (int it=0; it < SEARCH_ITERATIONS; it++) {
+			float dt = (stable+unstable)/2;
+			if (isStable(solver, size, dt, duration)) stable = dt;
+			else unstable = dt;
+		}
+		return stable;
+	}
+
+	/**
+	 * Runs a fresh hanging cloth for a while and checks that it stayed bounded and calmed down.
+	 */
+	static boolean isStable(ClothSolver solver, int size, float dt, float duration) {
+		ClothMesh mesh = SolverBenchmark.buildMesh(size);
+		int steps = Math.max(1, (int)(duration/dt));
+		for (int i=0; i < steps; i++) {
+			solver.step(mesh, dt);
+			if (!ImplicitBenchmark.isBounded(mesh)) return false;
+		}
+		return mesh.maxSpeedSquared() < SPEED_LIMIT*SPEED_LIMIT;
+	}
+}
@@ -0,0 +1,63 @@
+package facecloth;
+
+/**
+ * Compares the scalar and vectorised solver kernels on a single thread.
+ * <p>Run with --add-modules jdk.incubator.vector to get the vector kernels; without it both
+ * columns use the scalar code.</p>
+ * <p>Both solvers are warmed up before either is timed, and the timed steps are split in two
+ * halves run in opposite orders, scalar then kernel then kernel then scalar, so neither column
+ * pays for compiling the code or for running first.</p>
+ * <p>Usage: java facecloth.KernelBenchmark [steps]</p>
+ */
+/* $Id$ */
+public class KernelBenchmark {
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of timed steps
+	 */
+	public static void main(String[] args) {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		ClothKernels scalar = new ClothKernels();
+		ClothKernels best = ClothKernels.load();
+
+		System.out.println("kernels: "+best.getName());
+		System.out.println("solver  mesh  scalar ms  kernel ms  speed-up  identical");
+		for (int m=0; m < SolverBenchmark.MESH_SIZES.length; m++) {
+			int size = SolverBenchmark.MESH_SIZES[m];
+			for (int solver=0; solver < 2; solver++) {
+				ClothSolver scalarSolver = build(solver, scalar);
+				ClothSolver bestSolver = build(solver, best);
+				SolverBenchmark.warmUp(scalarSolver, size);
+				SolverBenchmark.warmUp(bestSolver, size);
+
+				ClothMesh scalarMesh = SolverBenchmark.buildMesh(size);
+				ClothMesh bestMesh = SolverBenchmark.buildMesh(size);
+				int half = steps/2;
+				double scalarMs = SolverBenchmark.time(scalarSolver, scalarMesh, half)*half;
+				double bestMs = SolverBenchmark.time(bestSolver, bestMesh, half)*half;
+				bestMs += SolverBenchmark.time(bestSolver, bestMesh, steps-half)*(steps-half);
+				scalarMs += SolverBenchmark.time(scalarSolver, scalarMesh, steps-half)*(steps-half);
+				scalarMs /= steps;
+				bestMs /= steps;
+
+				System.out.println(String.format("%-6s  %4d  %9.3f  %9.3f  %8.2f  %s",
+						(solver == 0) ? "spring" : "verlet", size, scalarMs, bestMs, scalarMs/bestMs, SolverBenchmark.sameState(scalarMesh, bestMesh)));
+			}
+		}
+	}
+
+	/**
+	 * Builds a single-threaded solver running on the given kernels.
+	 */
+	private static ClothSolver build(int solver, ClothKernels kernels) {
+		if (solver == 0) {
+			SpringSolver s = new SpringSolver();
+			s.setKernels(kernels);
+			return s;
+		}
+		VerletSolver s = new VerletSolver();
+		s.setKernels(kernels);
+		return s;
+	}
+}
@@ -0,0 +1,141 @@
+package facecloth;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import processing.core.*;
+
+/**
+ * Checks that the SoftwareRenderer still draws the same picture.
+ * <p>A checkerboard is mapped on a cloth posed by hand, with no physics: tilted away from the
+ * camera, so the texture needs its perspective, and with its lower half folded up in front of
+ * the upper half, so the depth test decides what shows. The still is drawn on one thread and on
+ * four, which must give the same pixels, then compared with the reference image. A few pixels
+ * may differ, from rounding on another JVM, but no more than MAX_DIFFERENT.</p>
+ * <p>The PApplet is never started; where AWT refuses to build one without a display, run this
+ * under a virtual display such as xvfb-run.</p>
+ * <p>Usage: java facecloth.RenderRegression [reference.png] [write]<br/>
+ * With write, the still replaces the reference instead, to be checked by eye before committing.</p>
+ */
+/* $Id$ */
+public class RenderRegression {
+	public static final String REFERENCE = "bench/facecloth/RenderRegression.png";
+	public static final int WIDTH = 640;
+	public static final int HEIGHT = 480;
+	public static final int MESH_SIZE = 20;
+	public static final float MAX_DIFFERENT = (float)0.001;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args the path of the reference image, and write to replace it
+	 */
+	public static void main(String[] args) throws IOException {
+		File reference = new File(args.length > 0 ? args[0] : REFERENCE);
+		boolean write = args.length > 1 && args[1].equals("write");
+
+		int[] single = render(null);
+		SolverPool pool = new SolverPool(4);
+		int[] pooled = render(pool);
+		pool.shutdown();
+
+		BufferedImage still = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		still.setRGB(0, 0, WIDTH, HEIGHT, single, 0, WIDTH);
+		if (write) {
+			ImageIO.write(still, "png", reference);
+			System.out.println("wrote "+reference);
+			return;
+		}
+
+		boolean identical = java.util.Arrays.equals(single, pooled);
+		System.out.println("threads identical: "+identical);
+
+		BufferedImage expected = ImageIO.read(reference);
+		if (expected == null || expected.getWidth() != WIDTH || expected.getHeight() != HEIGHT) {
+			System.out.println("no "+WIDTH+"x"+HEIGHT+" reference in "+reference);
+			System.exit(1);
+		}
+		int different = 0;
+		for (int y=0; y < HEIGHT; y++) {
+			for (int x=0; x < WIDTH; x++) {
+				if ((expected.getRGB(x, y) & 0xffffff) != (single[y*WIDTH+x] & 0xffffff)) different++;
+			}
+		}
+		float fraction = different/(float)(WIDTH*HEIGHT);
+		System.out.println("pixels different from the reference: "+different+" ("+(fraction*100)+"%)");
+
+		if (!identical || fraction > MAX_DIFFERENT) {
+			File failed = new File(reference.getPath()+".failed.png");
+			ImageIO.write(still, "png", failed);
+			System.out.println("FAILED, the still is in "+failed);
+			System.exit(1);
+		}
+		System.out.println("passed");
+	}
+
+	/**
+	 * Draws the still.
+	 *
+	 * @param pool the worker pool of the renderer, or null for one thread
+	 * @return the pixels of the framebuffer
+	 */
+	public static int[] render(SolverPool pool) {
+		PApplet p = new PApplet();
+		p.width = WIDTH;
+		p.height = HEIGHT;
+		ImageCloth cloth = new ImageCloth(p, checkerboard(p), 0xffffff00, MESH_SIZE, 400, 300, 0, 0);
+		pose(cloth);
+
+		SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT, pool);
+		cloth.setRenderer(renderer);
+		cloth.setDrawOutlines(true);
+		renderer.clear(0xff000000);
+		cloth.draw();
+		return renderer.getPixels().clone();
+	}
+
+	/**
+	 * Builds a 320x240 checkerboard of 20 pixel squares, red and blue with a green diagonal.
+	 */
+	static PImage checkerboard(PApplet p) {
+		PImage image = p.createImage(320, 240, PApplet.RGB);
+		image.loadPixels();
+		for (int y=0; y < image.height; y++) {
+			for (int x=0; x < image.width; x++) {
+				int c = ((x/20 + y/20) % 2 == 0) ? 0xffff0000 : 0xff0000ff;
+				if (Math.abs(x*3-y*4) < 6) c = 0xff00ff00;
+				image.pixels[y*image.width+x] = c;
+			}
+		}
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Tilts the cloth and folds its lower half up in front of the upper half.
+	 */
+	static void pose(ImageCloth cloth) {
+		float left = 120;
+		float top = 60;
+		float w = 400;
+		float h = 360;
+		for (int i=0; i < MESH_SIZE; i++) {
+			for (int j=0; j < MESH_SIZE; j++) {
+				float u = i/(float)(MESH_SIZE-1);
+				float v = j/(float)(MESH_SIZE-1);
+				// the right edge goes 300 pixels back
+				float x = left+u*w;
+				float y = top+v*h;
+				float z = -u*300;
+				if (v > 0.5) {
+					// 60 degrees from the upper half, towards the camera
+					float d = (v-(float)0.5)*h;
+					y = top+h/2 - d*(float)Math.cos(Math.PI/3);
+					z += d*(float)Math.sin(Math.PI/3);
+				}
+				cloth.setMeshPointPosition(i, j, x, y, z);
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package facecloth;
+
+import java.util.Arrays;
+
+/**
+ * Measures how the cloth solvers scale with the number of worker threads.
+ * <p>For each mesh size, every solver runs the same hanging cloth with 1 to N threads and reports
+ * the time per step, the speed-up over one thread and whether the final mesh is bit-for-bit
+ * identical to the single-threaded one.</p>
+ * <p>Every solver is warmed up on a throwaway mesh for at least WARMUP_STEPS steps and
+ * WARMUP_MILLIS milliseconds before it is timed, long enough for the JIT to compile the solver.
+ * Each mesh size and solver also makes a whole pass over the thread counts that is thrown away,
+ * so the one thread baseline does not carry the cost of compiling the code.</p>
+ * <p>Usage: java facecloth.SolverBenchmark [maxThreads] [steps]</p>
+ */
+/* $Id$ */
+public class SolverBenchmark {
+	public static final int[] MESH_SIZES = { 50, 100, 200 };
+	public static final int WARMUP_STEPS = 200;
+	public static final int WARMUP_MILLIS = 1000;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the maximum number of threads and the number of timed steps
+	 */
+	public static void main(String[] args) {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		System.out.println("solver  mesh  threads  ms/step  speed-up  identical");
+		for (int m=0; m < MESH_SIZES.length; m++) {
+			for (int solver=0; solver < 2; solver++) {
+				ClothMesh reference = null;
+				double baseline = 0;
+
+				// the first pass only warms up
+				for (int pass=0; pass < 2; pass++) {
+					for (int threads=1; threads <= maxThreads; threads = nextThreads(threads, maxThreads)) {
+						SolverPool pool = new SolverPool(threads);
+						ClothMesh mesh = buildMesh(MESH_SIZES[m]);
+						ClothSolver s = (solver == 0) ? new SpringSolver(pool) : new VerletSolver();
+						if (s instanceof VerletSolver) ((VerletSolver)s).setPool(pool);
+
+						double ms = run(s, mesh, steps);
+						pool.shutdown();
+						if (pass == 0) continue;
+
+						if (reference == null) {
+							reference = mesh;
+							baseline = ms;
+						}
+						System.out.println(String.format("%-6s  %4d  %7d  %7.3f  %8.2f  %s",
+								(solver == 0) ? "spring" : "verlet", MESH_SIZES[m], threads, ms, baseline/ms, sameState(reference, mesh)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the next thread count to try: powers of two, then the maximum.
+	 */
+	private static int nextThreads(int threads, int maxThreads) {
+		if (threads == maxThreads) return maxThreads+1;
+		return Math.min(threads*2, maxThreads);
+	}
+
+	/**
+	 * Warms a solver up, then runs it and gets the average time per step.
+	 *
+	 * @return the time per step (in milliseconds)
+	 */
+	static double run(ClothSolver solver, ClothMesh mesh, int steps) {
+		warmUp(solver, mesh.size);
+		return time(solver, mesh, steps);
+	}
+
+	/**
+	 * Steps a solver on a throwaway mesh until it is compiled, so the mesh that is timed starts
+	 * from the same state whatever the speed of the machine.
+	 *
+	 * @param solver the solver
+	 * @param size the number of rows and columns of the timed mesh
+	 */
+	static void warmUp(ClothSolver solver, int size) {
+		ClothMesh mesh = buildMesh(size);
+		long end = System.nanoTime()+WARMUP_MILLIS*1000000L;
+		for (int i=0; i < WARMUP_STEPS || System.nanoTime() < end; i++) {
+			solver.step(mesh, 0.1f);
+		}
+	}
+
+	/**
+	 * Runs a solver and gets the average time per step, without warming it up.
+	 *
+	 * @return the time per step (in milliseconds)
+	 */
+	static double time(ClothSolver solver, ClothMesh mesh, int steps) {
+		long start = System.nanoTime();
+		for (int i=0; i < steps; i++) {
+			solver.step(mesh, 0.1f);
+		}
+		return (System.nanoTime()-start)/1e6/steps;
+	}
+
+	/**
+	 * Builds a mesh like ImageCloth does, with its corners pinned to a 1024x768 window.
+	 *
+	 * @param size the number of rows and columns in the mesh
+	 * @return the mesh
+	 */
+	static ClothMesh buildMesh(int size) {
+		return buildMesh(size, 8.0f);
+	}
+
+	/**
+	 * Builds a mesh like ImageCloth does, with its corners pinned to a 1024x768 window.
+	 *
+	 * @param size the number of rows and columns in the mesh
+	 * @param strength the spring constant
+	 * @return the mesh
+	 */
+	static ClothMesh buildMesh(int size, float strength) {
+		float meshWidth = 640+640f/size;
+		float meshHeight = 240-480f/size;
+
+		ClothMesh mesh = new ClothMesh(size, 0.1f, 0.05f);
+		mesh.buildGrid(meshWidth/size, meshHeight/size, 0.2f, strength, 0.5f);
+
+		mesh.moveTo(mesh.index(0, 0), 20, 20, 0);
+		mesh.moveTo(mesh.index(size-1, 0), 1004, 20, 0);
+		mesh.moveTo(mesh.index(0, size-1), 20, 748, 0);
+		mesh.moveTo(mesh.index(size-1, size-1), 1004, 748, 0);
+		mesh.makeFixed(mesh.index(0, 0));
+		mesh.makeFixed(mesh.index(size-1, 0));
+		mesh.makeFixed(mesh.index(0, size-1));
+		mesh.makeFixed(mesh.index(size-1, size-1));
+
+		return mesh;
+	}
+
+	/**
+	 * Checks if two meshes hold exactly the same positions and velocities.
+	 */
+	static boolean sameState(ClothMesh a, ClothMesh b) {
+		return Arrays.equals(a.x, b.x) && Arrays.equals(a.y, b.y) && Arrays.equals(a.z, b.z)
+				&& Arrays.equals(a.vx, b.vx) && Arrays.equals(a.vy, b.vy) && Arrays.equals(a.vz, b.vz);
+	}
+}
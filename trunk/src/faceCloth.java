@@ -7,15 +7,28 @@ import facecloth.*;
 public class faceCloth extends PApplet {
     // display variables
     ImageCloth cloth;
+    QualityGovernor governor;
     int meshSize = 20;
     int clothWidth = 320;
     int clothHeight = 240;
     int clothColor = color(255, 255, 0);
 
     Capture capture;
+
+    // optional features, all off for the plain cloth
+    boolean retainedRenderer = false;  // keep the mesh in OpenGL buffers instead of drawing it vertex by vertex
+    int subdivisions = 1;  // above 1, draw a smooth surface that many times denser than the physics mesh
+    boolean physicsThread = false;  // step the physics on a second core
+    boolean qualityGovernor = false;  // lower the quality on machines that cannot keep up, 'g' toggles it
+    float frameBudget = 12;  // milliseconds of each frame the cloth may use
+    boolean captureThread = false;  // read the frames on a thread of their own and hand them over through a FrameExchange
+    boolean testPattern = false;  // with captureThread, run without a camera
+    int captureWidth = 320;  // with captureThread, scaled down to the cloth size by area averaging if larger
+    int captureHeight = 240;
+    boolean motionForces = false;  // with captureThread, let the motion in the video push the cloth
     
     // interaction variables
-    boolean clearFrame = true;
+    boolean skipUnchangedFrames = false;  // leave the last frame on screen while nothing changes
 
     int selectedHandle = -1;
     int selectionRange = 20;
@@ -34,32 +47,66 @@ public class faceCloth extends PApplet {
         frameRate(60);
         background(0);
 
-        // set up the video capture
-        capture = new Capture(this, clothWidth, clothHeight);
+        if (captureThread) {
+            // set up the video source, it hands its frames to the cloth from a thread of its own
+            // the work on each frame shares two threads, it all runs on the capture thread
+            SolverPool capturePool = new SolverPool(2);
+            FrameSource source;
+            if (testPattern) {
+                source = new TestPatternSource(clothWidth, clothHeight, 30);
+            } else {
+                CaptureSource camera = new CaptureSource(this, captureWidth, captureHeight, null, 30);
+                if (captureWidth != clothWidth || captureHeight != clothHeight)
+                    camera.setScaler(new FrameScaler(clothWidth, clothHeight, capturePool));
+                source = camera;
+            }
+
+            // set up the ImageCloth
+            cloth = new ImageCloth(this, source, clothColor, meshSize, clothWidth, clothHeight, gravity, drag);
+            if (motionForces)
+                cloth.getFrameExchange().setStage(new MotionFlow(cloth, capturePool));
+        } else {
+            // set up the video capture
+            capture = new Capture(this, clothWidth, clothHeight);
+
+            // set up the ImageCloth
+            cloth = new ImageCloth(this, capture, clothColor, meshSize, clothWidth, clothHeight, gravity, drag);
+        }
+
+        if (retainedRenderer)
+            cloth.setRenderer(new RetainedGLRenderer(this));
+        cloth.setSubdivisions(subdivisions);
+        if (physicsThread)
+            cloth.startPhysicsThread();
 
-        // set up the ImageCloth
-        cloth = new ImageCloth(this, capture, clothColor, meshSize, clothWidth, clothHeight, gravity, drag);
+        governor = new QualityGovernor(this, cloth, frameBudget);
+        governor.setEnabled(qualityGovernor);
     }
 
     //--------------------------------------------------------------
     public void draw() {
-        if (clearFrame)
-            // erase the previous frame
-            background(0);
-
         cloth.step();
 
         // if required, move one of the corner point
         cloth.setHandlePosition(selectedHandle, mouseX, mouseY, 0);
         cloth.clearHandleVelocity(selectedHandle);
 
+        if (skipUnchangedFrames && !cloth.needsRedraw())
+            // nothing moved and no new video frame, leave the last frame on screen
+            return;
+
+        // erase the previous frame, the trail mode keeps its own
+        background(0);
+
         cloth.draw();
+        governor.update();
     }
 
     //--------------------------------------------------------------
     public void captureEvent(Capture c) { 
-        // read the next video frame
-        c.read(); 
+        // read the next video frame, unless a CaptureSource reads it
+        if (c == capture)
+            c.read(); 
     }
 
     //--------------------------------------------------------------
@@ -136,8 +183,8 @@ public class faceCloth extends PApplet {
 
         // display mods
         else if (key == 'z')
-            // frame clear toggle
-            clearFrame = !clearFrame;
+            // trail toggle
+            cloth.setTrail(!cloth.getTrail());
         else if (key == 'x')
             // corner point handle toggle
             cloth.setDrawHandles(!cloth.getDrawHandles());
@@ -147,6 +194,9 @@ public class faceCloth extends PApplet {
         else if (key == 'v')
             // mesh toggle
             cloth.setDrawMesh(!cloth.getDrawMesh());
+        else if (key == 'g')
+            // quality governor toggle
+            governor.setEnabled(!governor.getEnabled());
 
         // reset all
         else if (key == ' ') {
@@ -0,0 +1,102 @@
+package facecloth;
+
+import processing.core.*;
+import processing.video.*;
+
+/**
+ * Publishes the frames of a live camera.
+ * <p>The Capture is polled from the thread of the source, four times per camera frame, and
+ * each new frame is read and copied into the FrameExchange there. The sketch must then leave
+ * the Capture alone: it should not define a captureEvent() that reads it.</p>
+ */
+/* $Id$ */
+public class CaptureSource implements FrameSource {
+	public static final int FRAME_RATE = 30;
+	public static final int POLLS_PER_FRAME = 4;
+
+	private Capture capture;
+	private int width;
+	private int height;
+	private int frameRate;
+
+	private FrameScaler scaler;
+
+	private FrameThread thread;
+	private long frameCount;
+	private FrameThread.Producer producer = new FrameThread.Producer() {
+		public boolean publish(FrameExchange frames) {
+			if (!capture.available()) return false;
+			capture.read();
+			frames.publish(capture, scaler);
+			return true;
+		}
+	};
+
+	/**
+	 * Builds a CaptureSource on the default camera.
+	 *
+	 * @param p the parent PApplet
+	 * @param width the width of the frames (in pixels)
+	 * @param height the height of the frames (in pixels)
+	 */
+	public CaptureSource(PApplet p, int width, int height) {
+		this(p, width, height, null, FRAME_RATE);
+	}
+
+	/**
+	 * Builds a CaptureSource.
+	 *
+	 * @param p the parent PApplet
+	 * @param width the width of the frames (in pixels)
+	 * @param height the height of the frames (in pixels)
+	 * @param device the name of the camera, one of Capture.list(), or null for the default one
+	 * @param frameRate the number of frames per second to ask the camera for
+	 */
+	public CaptureSource(PApplet p, int width, int height, String device, int frameRate) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		if (device == null) capture = new Capture(p, width, height, frameRate);
+		else capture = new Capture(p, width, height, device, frameRate);
+	}
+
+	public void start(FrameExchange frames) {
+		stop();
+		frameCount = 0;
+		thread = new FrameThread("CaptureSource", frames, frameRate*POLLS_PER_FRAME, producer);
+		thread.start();
+	}
+
+	/**
+	 * Stops publishing frames. The camera keeps running, see dispose().
+	 */
+	public void stop() {
+		if (thread == null) return;
+		thread.finish();
+		frameCount = thread.frameCount;
+		thread = null;
+	}
+
+	/**
+	 * Stops publishing frames and releases the camera.
+	 */
+	public void dispose() {
+		stop();
+		capture.stop();
+	}
+
+	/**
+	 * Scales the frames before they are published.
+	 * <p>Set this before the source is started, the published frames then have the size of the
+	 * scaler.</p>
+	 *
+	 * @param val the scaler, or null to publish the frames as they are
+	 */
+	public void setScaler(FrameScaler val) { scaler = val; }
+	public FrameScaler getScaler() { return scaler; }
+
+	public int getWidth() { return (scaler == null) ? width : scaler.getWidth(); }
+	public int getHeight() { return (scaler == null) ? height : scaler.getHeight(); }
+	public long getFrameCount() { return (thread == null) ? frameCount : thread.frameCount; }
+	public Capture getCapture() { return capture; }  // do not read it while the source runs
+}
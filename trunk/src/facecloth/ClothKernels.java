@@ -0,0 +1,257 @@
+package facecloth;
+
+/**
+ * The inner loops of the cloth solvers, written as plain scalar code.
+ * <p>Every kernel works on a range of particles or springs of a ClothMesh, so the solvers can
+ * split the work across a SolverPool. {@link #load()} returns the vectorised VectorKernels when
+ * the jdk.incubator.vector module is available, and falls back to this class otherwise.</p>
+ */
+/* $Id$ */
+public class ClothKernels {
+	private static ClothKernels best;
+
+	/**
+	 * Gets the fastest kernel set available on this JVM.
+	 *
+	 * @return the VectorKernels if the Vector API can be loaded, the scalar kernels otherwise
+	 */
+	public static synchronized ClothKernels load() {
+		if (best == null) {
+			try {
+				best = (ClothKernels)Class.forName("facecloth.VectorKernels").getDeclaredConstructor().newInstance();
+			} catch (Throwable t) {
+				// the module is not there (run with --add-modules jdk.incubator.vector)
+				best = new ClothKernels();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the name of the kernel set.
+	 *
+	 * @return a short description of the kernels
+	 */
+	public String getName() {
+		return "scalar";
+	}
+
+	/**
+	 * Resets the forces of a range of particles to gravity and drag.
+	 *
+	 * @param mesh the mesh to update
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void environment(ClothMesh mesh, int from, int to) {
+		float g = mesh.gravity;
+		float d = mesh.drag;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		float[] fx = mesh.fx, fy = mesh.fy, fz = mesh.fz;
+
+		for (int k=from; k < to; k++) {
+			fx[k] = vx[k]*-d;
+			fy[k] = g + vy[k]*-d;
+			fz[k] = vz[k]*-d;
+		}
+	}
+
+	/**
+	 * Accumulates the forces of a range of springs on their end points.
+	 * <p>Subclasses may only be handed springs of a single colour class.</p>
+	 *
+	 * @param mesh the mesh to update
+	 * @param from the first spring (inclusive)
+	 * @param to the last spring (exclusive)
+	 */
+	public void springs(ClothMesh mesh, int from, int to) {
+		boolean[] fixed = mesh.fixed;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		float[] fx = mesh.fx, fy = mesh.fy, fz = mesh.fz;
+		int[] springA = mesh.springA;
+		int[] springB = mesh.springB;
+		float[] rest = mesh.springRest;
+		float[] strength = mesh.springStrength;
+		float[] damping = mesh.springDamping;
+
+		for (int s=from; s < to; s++) {
+			int a = springA[s];
+			int b = springB[s];
+			if (fixed[a] && fixed[b]) continue;
+
+			float a2bX = x[a]-x[b];
+			float a2bY = y[a]-y[b];
+			float a2bZ = z[a]-z[b];
+			float a2bDistance = (float)Math.sqrt(a2bX*a2bX + a2bY*a2bY + a2bZ*a2bZ);
+			if (a2bDistance == 0) {
+				a2bX = a2bY = a2bZ = 0;
+			} else {
+				a2bX /= a2bDistance;
+				a2bY /= a2bDistance;
+				a2bZ /= a2bDistance;
+			}
+
+			// the spring force is proportional to the stretch, the damping to the velocity along the spring
+			float springForce = -(a2bDistance-rest[s])*strength[s];
+			float dampingForce = -damping[s]*(a2bX*(vx[a]-vx[b]) + a2bY*(vy[a]-vy[b]) + a2bZ*(vz[a]-vz[b]));
+			float r = springForce+dampingForce;
+			a2bX *= r;
+			a2bY *= r;
+			a2bZ *= r;
+
+			if (!fixed[a]) {
+				fx[a] += a2bX;
+				fy[a] += a2bY;
+				fz[a] += a2bZ;
+			}
+			if (!fixed[b]) {
+				fx[b] -= a2bX;
+				fy[b] -= a2bY;
+				fz[b] -= a2bZ;
+			}
+		}
+	}
+
+	/**
+	 * Offsets the free particles of a range: dst = base + delta*h.
+	 *
+	 * @param dst the values to update
+	 * @param base the base values
+	 * @param delta the rates of change
+	 * @param h the time step
+	 * @param fixed the fixed flags, fixed particles are left untouched
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void offset(float[] dst, float[] base, float[] delta, float h, boolean[] fixed, int from, int to) {
+		for (int k=from; k < to; k++) {
+			if (!fixed[k]) dst[k] = base[k] + delta[k]*h;
+		}
+	}
+
+	/**
+	 * Offsets the free particles of a range by an acceleration: dst = base + force*h/mass.
+	 *
+	 * @param dst the values to update
+	 * @param base the base values
+	 * @param force the forces
+	 * @param h the time step
+	 * @param mass the particle masses
+	 * @param fixed the fixed flags, fixed particles are left untouched
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void offsetByMass(float[] dst, float[] base, float[] force, float h, float[] mass, boolean[] fixed, int from, int to) {
+		for (int k=from; k < to; k++) {
+			if (!fixed[k]) dst[k] = base[k] + force[k]*h/mass[k];
+		}
+	}
+
+	/**
+	 * Combines four Runge-Kutta rates: dst = base + dt/6*(k1 + 2*k2 + 2*k3 + k4).
+	 *
+	 * @param dst the values to update
+	 * @param base the values at the start of the step
+	 * @param k1 the first rates
+	 * @param k2 the second rates
+	 * @param k3 the third rates
+	 * @param k4 the fourth rates
+	 * @param dt the time step
+	 * @param fixed the fixed flags, fixed particles are left untouched
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void rungeKutta(float[] dst, float[] base, float[] k1, float[] k2, float[] k3, float[] k4, float dt, boolean[] fixed, int from, int to) {
+		for (int k=from; k < to; k++) {
+			if (!fixed[k]) dst[k] = base[k] + dt/6.0f*(k1[k] + 2.0f*k2[k] + 2.0f*k3[k] + k4[k]);
+		}
+	}
+
+	/**
+	 * Combines four Runge-Kutta forces: dst = base + dt/(6*mass)*(k1 + 2*k2 + 2*k3 + k4).
+	 *
+	 * @param dst the values to update
+	 * @param base the values at the start of the step
+	 * @param k1 the first forces
+	 * @param k2 the second forces
+	 * @param k3 the third forces
+	 * @param k4 the fourth forces
+	 * @param dt the time step
+	 * @param mass the particle masses
+	 * @param fixed the fixed flags, fixed particles are left untouched
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void rungeKuttaByMass(float[] dst, float[] base, float[] k1, float[] k2, float[] k3, float[] k4, float dt, float[] mass, boolean[] fixed, int from, int to) {
+		for (int k=from; k < to; k++) {
+			if (!fixed[k]) dst[k] = base[k] + dt/(6.0f*mass[k])*(k1[k] + 2.0f*k2[k] + 2.0f*k3[k] + k4[k]);
+		}
+	}
+
+	/**
+	 * Applies gravity and drag to a range of particles and predicts their next positions.
+	 *
+	 * @param mesh the mesh to update
+	 * @param px the predicted x-coordinates
+	 * @param py the predicted y-coordinates
+	 * @param pz the predicted z-coordinates
+	 * @param dt the time step
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void verletPredict(ClothMesh mesh, float[] px, float[] py, float[] pz, float dt, int from, int to) {
+		float g = mesh.gravity;
+		float d = mesh.drag;
+		boolean[] fixed = mesh.fixed;
+		float[] mass = mesh.mass;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+
+		for (int k=from; k < to; k++) {
+			if (fixed[k]) {
+				// pinned particles stay where the handles put them
+				px[k] = x[k];
+				py[k] = y[k];
+				pz[k] = z[k];
+			} else {
+				float s = dt/mass[k];
+				vx[k] += vx[k]*-d*s;
+				vy[k] += (g + vy[k]*-d)*s;
+				vz[k] += vz[k]*-d*s;
+
+				px[k] = x[k] + vx[k]*dt;
+				py[k] = y[k] + vy[k]*dt;
+				pz[k] = z[k] + vz[k]*dt;
+			}
+		}
+	}
+
+	/**
+	 * Derives the velocities of a range of particles from their corrected positions and commits them.
+	 *
+	 * @param mesh the mesh to update
+	 * @param px the corrected x-coordinates
+	 * @param py the corrected y-coordinates
+	 * @param pz the corrected z-coordinates
+	 * @param dt the time step
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	public void verletUpdate(ClothMesh mesh, float[] px, float[] py, float[] pz, float dt, int from, int to) {
+		boolean[] fixed = mesh.fixed;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		float invDt = 1/dt;
+
+		for (int k=from; k < to; k++) {
+			if (fixed[k]) continue;
+			vx[k] = (px[k]-x[k])*invDt;
+			vy[k] = (py[k]-y[k])*invDt;
+			vz[k] = (pz[k]-z[k])*invDt;
+			x[k] = px[k];
+			y[k] = py[k];
+			z[k] = pz[k];
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package facecloth;
+
+import java.util.Arrays;
+
+/**
+ * A particle and spring mesh stored as flat primitive arrays.
+ * <p>The particle at mesh point (i, j) lives at index i*size+j in every per-particle array,
+ * and springs are kept as parallel arrays of end point indices and coefficients.</p>
+ * <p>Springs can be grouped into colour classes, contiguous runs of springs that never share a
+ * particle. The springs of a class can then be processed in any order, or in parallel, with the
+ * same result.</p>
+ */
+/* $Id$ */
+public class ClothMesh {
+	// mesh dimensions
+	int size;
+	int count;
+
+	// particle state
+	float[] x;
+	float[] y;
+	float[] z;
+	float[] vx;
+	float[] vy;
+	float[] vz;
+	float[] fx;
+	float[] fy;
+	float[] fz;
+	float[] mass;
+	boolean[] fixed;
+
+	// springs
+	int springCount;
+	int[] springA;
+	int[] springB;
+	float[] springRest;
+	float[] springStrength;
+	float[] springDamping;
+	// bumped whenever the springs, the masses, the drag or the fixed points change, see SpringSolver.getMaxStableStep()
+	int springVersion;
+
+	// spring colour classes, class c spans springs colourStart[c] to colourStart[c+1]
+	int colourCount;
+	int[] colourStart;
+
+	// environment
+	float gravity;
+	float drag;
+
+	// bounding boxes of the particle columns, see measure()
+	MeshBounds bounds;
+
+	/**
+	 * Builds an empty ClothMesh.
+	 *
+	 * @param size the number of rows and columns in the mesh
+	 * @param gravity the gravity applied to every particle
+	 * @param drag the drag applied to every particle
+	 */
+	public ClothMesh(int size, float gravity, float drag) {
+		this.size = size;
+		this.count = size*size;
+		this.gravity = gravity;
+		this.drag = drag;
+
+		x = new float[count];
+		y = new float[count];
+		z = new float[count];
+		vx = new float[count];
+		vy = new float[count];
+		vz = new float[count];
+		fx = new float[count];
+		fy = new float[count];
+		fz = new float[count];
+		mass = new float[count];
+		fixed = new boolean[count];
+
+		// a square grid has 2*size*(size-1) structural springs
+		int springCapacity = Math.max(1, 2*size*(size-1));
+		springA = new int[springCapacity];
+		springB = new int[springCapacity];
+		springRest = new float[springCapacity];
+		springStrength = new float[springCapacity];
+		springDamping = new float[springCapacity];
+
+		colourStart = new int[5];
+		bounds = new MeshBounds(size);
+	}
+
+	/**
+	 * Gets the array index of a mesh point.
+	 *
+	 * @param i x-index of the point in the mesh
+	 * @param j y-index of the point in the mesh
+	 * @return the index of the point in the particle arrays
+	 */
+	public final int index(int i, int j) {
+		return i*size+j;
+	}
+
+	/**
+	 * Initializes a particle.
+	 * <p>The particle is free and at rest after the call.</p>
+	 *
+	 * @param k the particle index
+	 * @param m the particle mass
+	 * @param nX the x-coordinate of the particle
+	 * @param nY the y-coordinate of the particle
+	 * @param nZ the z-coordinate of the particle
+	 */
+	public void makeParticle(int k, float m, float nX, float nY, float nZ) {
+		mass[k] = m;
+		springVersion++;
+		fixed[k] = false;
+		bounds.valid = false;
+		x[k] = nX;
+		y[k] = nY;
+		z[k] = nZ;
+		vx[k] = vy[k] = vz[k] = 0;
+		fx[k] = fy[k] = fz[k] = 0;
+	}
+
+	/**
+	 * Adds a spring between two particles.
+	 *
+	 * @param a the index of the first particle
+	 * @param b the index of the second particle
+	 * @param strength the spring constant
+	 * @param damping the spring damping
+	 * @param rest the spring rest length
+	 * @return the index of the new spring
+	 */
+	public int makeSpring(int a, int b, float strength, float damping, float rest) {
+		if (springCount == springA.length) growSprings(springCount*2);
+
+		springA[springCount] = a;
+		springB[springCount] = b;
+		springStrength[springCount] = strength;
+		springDamping[springCount] = damping;
+		springRest[springCount] = rest;
+		springVersion++;
+
+		return springCount++;
+	}
+
+	/**
+	 * Builds a regular grid of particles linked by horizontal and vertical springs.
+	 * <p>The springs are added in four colour classes: horizontal springs leaving even columns,
+	 * horizontal springs leaving odd columns, then vertical springs leaving even and odd rows.</p>
+	 *
+	 * @param stepX the horizontal distance between particles
+	 * @param stepY the vertical distance between particles
+	 * @param m the particle mass
+	 * @param strength the spring constant
+	 * @param damping the spring damping
+	 */
+	public void buildGrid(float stepX, float stepY, float m, float strength, float damping) {
+		clearSprings();
+
+		// create a grid of particles
+		for (int i=0; i < size; i++) {
+			for (int j=0; j < size; j++) {
+				makeParticle(index(i, j), m, i*stepX, j*stepY, 0);
+			}
+		}
+
+		// add horizontal springs
+		for (int parity=0; parity < 2; parity++) {
+			for (int i=parity+1; i < size; i+=2) {
+				for (int j=0; j < size; j++) {
+					makeSpring(index(i-1, j), index(i, j), strength, damping, stepX);
+				}
+			}
+			endColour();
+		}
+
+		// add vertical springs
+		for (int parity=0; parity < 2; parity++) {
+			for (int i=0; i < size; i++) {
+				for (int j=parity+1; j < size; j+=2) {
+					makeSpring(index(i, j-1), index(i, j), strength, damping, stepY);
+				}
+			}
+			endColour();
+		}
+	}
+
+	/**
+	 * Removes all the springs from the mesh.
+	 */
+	public void clearSprings() {
+		springCount = 0;
+		colourCount = 0;
+		springVersion++;
+	}
+
+	/**
+	 * Closes the current spring colour class.
+	 * <p>The springs added since the previous call must not share any particle.</p>
+	 */
+	public void endColour() {
+		if (colourCount+1 == colourStart.length) {
+			int[] nStart = new int[colourStart.length*2];
+			System.arraycopy(colourStart, 0, nStart, 0, colourStart.length);
+			colourStart = nStart;
+		}
+		colourStart[++colourCount] = springCount;
+	}
+
+	/**
+	 * Checks if every spring belongs to a colour class.
+	 *
+	 * @return whether or not the springs can be processed class by class
+	 */
+	public boolean isColoured() {
+		return colourCount > 0 && colourStart[colourCount] == springCount;
+	}
+
+	/**
+	 * Grows the spring arrays to the given capacity.
+	 *
+	 * @param capacity the new capacity
+	 */
+	private void growSprings(int capacity) {
+		int[] nA = new int[capacity];
+		int[] nB = new int[capacity];
+		float[] nRest = new float[capacity];
+		float[] nStrength = new float[capacity];
+		float[] nDamping = new float[capacity];
+
+		System.arraycopy(springA, 0, nA, 0, springCount);
+		System.arraycopy(springB, 0, nB, 0, springCount);
+		System.arraycopy(springRest, 0, nRest, 0, springCount);
+		System.arraycopy(springStrength, 0, nStrength, 0, springCount);
+		System.arraycopy(springDamping, 0, nDamping, 0, springCount);
+
+		springA = nA;
+		springB = nB;
+		springRest = nRest;
+		springStrength = nStrength;
+		springDamping = nDamping;
+	}
+
+	/**
+	 * Copies the state of a mesh of another size onto this one.
+	 * <p>Positions and velocities are interpolated bilinearly over the source grid, so the cloth
+	 * keeps its shape. Every fixed point of the source fixes the nearest point of this mesh at the
+	 * same position; the corners map onto the corners. The springs are left untouched.</p>
+	 *
+	 * @param source the mesh to copy from, at least 2 by 2
+	 */
+	public void resample(ClothMesh source) {
+		int last = source.size-1;
+		float scale = (size > 1) ? last/(float)(size-1) : 0;
+		bounds.valid = false;
+
+		for (int i=0; i < size; i++) {
+			float u = i*scale;
+			int i0 = Math.min((int)u, last-1);
+			float fu = u-i0;
+			for (int j=0; j < size; j++) {
+				float v = j*scale;
+				int j0 = Math.min((int)v, last-1);
+				float fv = v-j0;
+
+				int k = index(i, j);
+				int s00 = source.index(i0, j0);
+				int s01 = s00+1;
+				int s10 = s00+source.size;
+				int s11 = s10+1;
+				x[k] = bilinear(source.x, s00, s01, s10, s11, fu, fv);
+				y[k] = bilinear(source.y, s00, s01, s10, s11, fu, fv);
+				z[k] = bilinear(source.z, s00, s01, s10, s11, fu, fv);
+				vx[k] = bilinear(source.vx, s00, s01, s10, s11, fu, fv);
+				vy[k] = bilinear(source.vy, s00, s01, s10, s11, fu, fv);
+				vz[k] = bilinear(source.vz, s00, s01, s10, s11, fu, fv);
+				fixed[k] = false;
+			}
+		}
+		springVersion++;
+
+		// carry the pinned points over
+		float back = (last > 0) ? (size-1)/(float)last : 0;
+		for (int i=0; i < source.size; i++) {
+			for (int j=0; j < source.size; j++) {
+				int s = source.index(i, j);
+				if (!source.fixed[s]) continue;
+
+				int k = index(Math.round(i*back), Math.round(j*back));
+				makeFixed(k);
+				moveTo(k, source.x[s], source.y[s], source.z[s]);
+			}
+		}
+	}
+
+	/**
+	 * Interpolates a value between four neighbouring particles.
+	 */
+	private static float bilinear(float[] a, int k00, int k01, int k10, int k11, float fu, float fv) {
+		float top = a[k00] + (a[k10]-a[k00])*fu;
+		float bottom = a[k01] + (a[k11]-a[k01])*fu;
+		return top + (bottom-top)*fv;
+	}
+
+	/**
+	 * Moves a particle.
+	 *
+	 * @param k the particle index
+	 * @param nX new x-coordinate of the particle
+	 * @param nY new y-coordinate of the particle
+	 * @param nZ new z-coordinate of the particle
+	 */
+	public void moveTo(int k, float nX, float nY, float nZ) {
+		x[k] = nX;
+		y[k] = nY;
+		z[k] = nZ;
+		// the old position may still be counted, which only makes the box a little loose
+		if (bounds.valid) bounds.include(k/size, nX, nY, nZ);
+	}
+
+	/**
+	 * Sets a particle's velocity.
+	 *
+	 * @param k the particle index
+	 * @param nVX x-value of new velocity
+	 * @param nVY y-value of new velocity
+	 * @param nVZ z-value of new velocity
+	 */
+	public void setVelocity(int k, float nVX, float nVY, float nVZ) {
+		vx[k] = nVX;
+		vy[k] = nVY;
+		vz[k] = nVZ;
+	}
+
+	/**
+	 * Fixes a particle in place.
+	 * <p>Like a fixed traer Particle, the velocity is cleared as well.</p>
+	 *
+	 * @param k the particle index
+	 */
+	public void makeFixed(int k) {
+		fixed[k] = true;
+		springVersion++;
+		vx[k] = vy[k] = vz[k] = 0;
+	}
+
+	/**
+	 * Frees a particle.
+	 *
+	 * @param k the particle index
+	 */
+	public void makeFree(int k) {
+		fixed[k] = false;
+		springVersion++;
+	}
+
+	/**
+	 * Adds to the velocity of every free particle.
+	 *
+	 * @param dvx the x-values to add, by particle index
+	 * @param dvy the y-values to add
+	 * @param dvz the z-values to add, or null to leave z alone
+	 */
+	public void addVelocities(float[] dvx, float[] dvy, float[] dvz) {
+		for (int k=0; k < count; k++) {
+			if (fixed[k]) continue;
+			vx[k] += dvx[k];
+			vy[k] += dvy[k];
+			if (dvz != null) vz[k] += dvz[k];
+		}
+	}
+
+	/**
+	 * Clears the force accumulators of every particle.
+	 */
+	public void clearForces() {
+		Arrays.fill(fx, 0, count, 0);
+		Arrays.fill(fy, 0, count, 0);
+		Arrays.fill(fz, 0, count, 0);
+	}
+
+	/**
+	 * Sets the spring constant of every spring.
+	 *
+	 * @param strength the new spring constant
+	 */
+	public void setSpringStrength(float strength) {
+		Arrays.fill(springStrength, 0, springCount, strength);
+		springVersion++;
+	}
+
+	/**
+	 * Gets the highest squared speed of the free particles.
+	 *
+	 * @return the squared speed of the fastest free particle
+	 */
+	public float maxSpeedSquared() {
+		float max = 0;
+		for (int k=0; k < count; k++) {
+			if (fixed[k]) continue;
+			float s = vx[k]*vx[k] + vy[k]*vy[k] + vz[k]*vz[k];
+			if (s > max) max = s;
+		}
+		return max;
+	}
+
+	/**
+	 * Measures the mesh after a physics step.
+	 * <p>This finds the bounding box of every column of particles and the speed of the fastest
+	 * free particle in the same pass, so keeping the bounds up to date costs the step nothing
+	 * more than rest detection already does.</p>
+	 *
+	 * @return the square of the fastest free particle's speed
+	 */
+	public float measure() {
+		float max = 0;
+		for (int i=0; i < size; i++) {
+			bounds.reset(i);
+			for (int k=i*size; k < (i+1)*size; k++) {
+				bounds.include(i, x[k], y[k], z[k]);
+				if (fixed[k]) continue;
+				float s = vx[k]*vx[k] + vy[k]*vy[k] + vz[k]*vz[k];
+				if (s > max) max = s;
+			}
+		}
+		bounds.valid = true;
+		return max;
+	}
+
+	public int getSize() { return size; }
+	public int getCount() { return count; }
+	public int getSpringCount() { return springCount; }
+	public int getColourCount() { return colourCount; }
+	public float getX(int k) { return x[k]; }
+	public float getY(int k) { return y[k]; }
+	public float getZ(int k) { return z[k]; }
+	public boolean isFixed(int k) { return fixed[k]; }
+
+	public void setGravity(float g) { gravity = g; }
+	public float getGravity() { return gravity; }
+	public void setDrag(float d) { drag = d; springVersion++; }
+	public float getDrag() { return drag; }
+}
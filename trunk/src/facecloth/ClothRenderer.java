@@ -0,0 +1,59 @@
+package facecloth;
+
+/**
+ * Draws an ImageCloth: the mapped image on its mesh, the mesh outlines and the corner handles.
+ * <p>ImageCloth hands its renderer a grid of positions to draw every frame, either the mesh
+ * itself or a finer surface through it. Everything else (the mapped image, the part of it the
+ * mesh covers, the colours and the display options) is read from the cloth.</p>
+ */
+/* $Id$ */
+public interface ClothRenderer {
+	/**
+	 * Draws the mapped image on the cloth mesh.
+	 *
+	 * @param cloth the cloth to draw
+	 * @param x the x-coordinates of the grid points, indexed like the ClothMesh
+	 * @param y the y-coordinates of the grid points
+	 * @param z the z-coordinates of the grid points
+	 * @param size the number of rows and columns in the grid
+	 */
+	public void drawCloth(ImageCloth cloth, float[] x, float[] y, float[] z, int size);
+
+	/**
+	 * Draws an outline around the cloth mesh.
+	 *
+	 * @param cloth the cloth to draw
+	 * @param x the x-coordinates of the grid points, indexed like the ClothMesh
+	 * @param y the y-coordinates of the grid points
+	 * @param z the z-coordinates of the grid points
+	 * @param size the number of rows and columns in the grid
+	 */
+	public void drawOutlines(ImageCloth cloth, float[] x, float[] y, float[] z, int size);
+
+	/**
+	 * Draws the corner handles.
+	 *
+	 * @param cloth the cloth to draw
+	 * @param x the x-coordinates of the handles, indexed by TOP_LEFT to BOTTOM_RIGHT
+	 * @param y the y-coordinates of the handles
+	 * @param colours the colours of the handles
+	 */
+	public void drawHandles(ImageCloth cloth, float[] x, float[] y, int[] colours);
+
+	/**
+	 * Starts a frame of the trail mode.
+	 * <p>The previous frames are faded by the given factor, and the cloth drawn until endTrail()
+	 * goes on top of them instead of on a cleared screen.</p>
+	 *
+	 * @param cloth the cloth to draw
+	 * @param keep the fraction of the previous frames' brightness to keep, from 0 to 1
+	 */
+	public void beginTrail(ImageCloth cloth, float keep);
+
+	/**
+	 * Finishes a frame of the trail mode and shows it.
+	 *
+	 * @param cloth the cloth to draw
+	 */
+	public void endTrail(ImageCloth cloth);
+}
@@ -0,0 +1,15 @@
+package facecloth;
+
+/**
+ * A physics engine that advances a ClothMesh through time.
+ */
+/* $Id$ */
+public interface ClothSolver {
+	/**
+	 * Advances the mesh by one time step.
+	 *
+	 * @param mesh the mesh to update
+	 * @param dt the length of the time step
+	 */
+	public void step(ClothMesh mesh, float dt);
+}
@@ -0,0 +1,336 @@
+package facecloth;
+
+import java.nio.*;
+import javax.media.opengl.*;
+import processing.core.*;
+import processing.opengl.*;
+
+/**
+ * Draws the cloth as a dense static grid displaced by a vertex shader.
+ * <p>The particle positions are uploaded every frame as a small floating point texture, one
+ * texel per mesh point. The render grid never changes: each of its vertices only carries its
+ * place on the cloth, and the vertex shader interpolates its position from the 4x4 nearest mesh
+ * points with a bicubic Catmull-Rom patch. The render resolution is therefore independent of
+ * the physics resolution, and only meshSize*meshSize*12 bytes cross the bus per frame.</p>
+ * <p>This needs GLSL 1.20 with texture fetches in the vertex shader and float textures
+ * (ARB_texture_float). The outlines and handles are drawn like the PAppletRenderer does.</p>
+ * <p>DisplacementRegression, with the benchmarks, compares a still drawn by the shader with the
+ * SoftwareRenderer, and is meant to run headless on Mesa's software OpenGL.</p>
+ * <p>Render bands over bands the cloth culls are left out, and the trail mode is drawn through
+ * TrailBuffers, like in the RetainedGLRenderer.</p>
+ */
+/* $Id$ */
+public class DisplacementGLRenderer extends PAppletRenderer {
+	public static final int RENDER_SIZE = 80;
+
+	private static final String VERTEX_SHADER =
+		"#version 120\n" +
+		"uniform sampler2D positions;\n" +
+		"uniform float meshSize;\n" +
+		"uniform vec2 uvScale;\n" +
+		// mesh point (i, j) is texel (j, i), in the order of the ClothMesh arrays
+		"vec3 texel(float i, float j) {\n" +
+		"  return texture2DLod(positions, vec2((j+0.5)/meshSize, (i+0.5)/meshSize), 0.0).xyz;\n" +
+		"}\n" +
+		// the mesh is extended linearly past its edges, like SubdividedSurface does
+		"vec3 fetch(float i, float j) {\n" +
+		"  if (j < 0.0) return 2.0*texel(i, 0.0)-texel(i, 1.0);\n" +
+		"  if (j > meshSize-1.0) return 2.0*texel(i, meshSize-1.0)-texel(i, meshSize-2.0);\n" +
+		"  return texel(i, j);\n" +
+		"}\n" +
+		"vec3 catmullRom(vec3 p0, vec3 p1, vec3 p2, vec3 p3, float t) {\n" +
+		"  return 0.5*(2.0*p1 + (p2-p0)*t + (2.0*p0-5.0*p1+4.0*p2-p3)*t*t + (3.0*(p1-p2)+p3-p0)*t*t*t);\n" +
+		"}\n" +
+		"vec3 interpolate(float i, float j, float t) {\n" +
+		"  return catmullRom(fetch(i, j-1.0), fetch(i, j), fetch(i, j+1.0), fetch(i, j+2.0), t);\n" +
+		"}\n" +
+		"vec3 column(float i, float j, float t) {\n" +
+		"  if (i < 0.0) return 2.0*interpolate(0.0, j, t)-interpolate(1.0, j, t);\n" +
+		"  if (i > meshSize-1.0) return 2.0*interpolate(meshSize-1.0, j, t)-interpolate(meshSize-2.0, j, t);\n" +
+		"  return interpolate(i, j, t);\n" +
+		"}\n" +
+		"void main() {\n" +
+		"  vec2 g = gl_Vertex.xy*(meshSize-1.0);\n" +
+		"  vec2 c = min(floor(g), vec2(meshSize-2.0));\n" +
+		"  vec2 f = g-c;\n" +
+		"  vec3 position = catmullRom(column(c.x-1.0, c.y, f.y), column(c.x, c.y, f.y), column(c.x+1.0, c.y, f.y), column(c.x+2.0, c.y, f.y), f.x);\n" +
+		"  gl_Position = gl_ModelViewProjectionMatrix*vec4(position, 1.0);\n" +
+		"  gl_TexCoord[0] = vec4(gl_Vertex.xy*uvScale, 0.0, 1.0);\n" +
+		"  gl_FrontColor = gl_Color;\n" +
+		"}\n";
+
+	private static final String FRAGMENT_SHADER =
+		"#version 120\n" +
+		"uniform sampler2D image;\n" +
+		"uniform float textured;\n" +
+		"void main() {\n" +
+		"  vec3 colour = mix(vec3(1.0), texture2D(image, gl_TexCoord[0].st).rgb, textured);\n" +
+		"  gl_FragColor = vec4(colour, 1.0)*gl_Color;\n" +
+		"}\n";
+
+	private PApplet p;
+	private int renderSize;
+
+	// shader program
+	private int program;
+	private int positionsLocation;
+	private int imageLocation;
+	private int meshSizeLocation;
+	private int uvScaleLocation;
+	private int texturedLocation;
+
+	// buffer objects and textures
+	private int[] buffers = new int[2];
+	private int[] positionTexture = new int[1];
+	private ImageTexture texture = new ImageTexture();
+	private TrailBuffers trail = new TrailBuffers();
+	private int indexCount;
+
+	// the bands of the render grid over visible bands of the cloth
+	private boolean[] visibleBands;
+
+	// client side copy of the positions
+	private FloatBuffer positions;
+
+	// what the positions texture was built for
+	private int meshSize = -1;
+
+	/**
+	 * Builds a DisplacementGLRenderer with the default render grid.
+	 *
+	 * @param p the parent PApplet, running the OPENGL renderer
+	 */
+	public DisplacementGLRenderer(PApplet p) {
+		this(p, RENDER_SIZE);
+	}
+
+	/**
+	 * Builds a DisplacementGLRenderer.
+	 *
+	 * @param p the parent PApplet, running the OPENGL renderer
+	 * @param renderSize the number of rows and columns in the render grid
+	 */
+	public DisplacementGLRenderer(PApplet p, int renderSize) {
+		super(p);
+		this.p = p;
+		this.renderSize = Math.max(2, renderSize);
+		visibleBands = new boolean[this.renderSize-1];
+	}
+
+	public void drawCloth(ImageCloth cloth, float[] x, float[] y, float[] z, int size) {
+		PImage image = cloth.getMappedImage();
+		// nothing to map before the first frame comes in
+		if (image.width == 0 || image.height == 0) return;
+
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+
+		if (program == 0) build(gl);
+		if (size != meshSize) allocatePositions(gl, size);
+		texture.update(gl, image, cloth.getFrameExchange());
+		uploadPositions(gl, x, y, z);
+		updateVisibleBands(cloth.getVisibleBands(), size);
+
+		gl.glActiveTexture(GL.GL_TEXTURE1);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, positionTexture[0]);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getName());
+
+		gl.glUseProgram(program);
+		gl.glUniform1i(positionsLocation, 1);
+		gl.glUniform1i(imageLocation, 0);
+		gl.glUniform1f(meshSizeLocation, meshSize);
+		gl.glUniform1f(texturedLocation, 1);
+		// the texture coordinates of the last mesh point, from the table the other renderers use
+		gl.glUniform2f(uvScaleLocation, cloth.getTextureU()[size-1], cloth.getTextureV()[size-1]);
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[0]);
+		gl.glVertexPointer(2, GL.GL_FLOAT, 0, 0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+		gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glColor4f(1, 1, 1, 1);
+		RetainedGLRenderer.drawBands(gl, visibleBands, renderSize);
+
+		if (cloth.getDrawMesh()) {
+			// draw the same grid again as a wireframe
+			int c = cloth.getForegroundColour();
+			gl.glColor4f(((c >> 16) & 0xff)/255f, ((c >> 8) & 0xff)/255f, (c & 0xff)/255f, ((c >> 24) & 0xff)/255f);
+			gl.glUniform1f(texturedLocation, 0);
+			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_LINE);
+			RetainedGLRenderer.drawBands(gl, visibleBands, renderSize);
+			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
+		}
+
+		gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glUseProgram(0);
+		gl.glActiveTexture(GL.GL_TEXTURE1);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		pgl.endGL();
+	}
+
+	/**
+	 * Maps the visible bands of the cloth grid onto the bands of the render grid.
+	 * <p>A render band is drawn if it overlaps any visible cloth band.</p>
+	 */
+	private void updateVisibleBands(boolean[] visible, int size) {
+		for (int r=0; r < renderSize-1; r++) {
+			int first = (int)((long)r*(size-1)/(renderSize-1));
+			int last = Math.min(size-2, (int)(((long)(r+1)*(size-1)-1)/(renderSize-1)));
+			visibleBands[r] = false;
+			for (int c=first; c <= last; c++) {
+				if (visible[c]) {
+					visibleBands[r] = true;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles the shaders and builds the static render grid.
+	 */
+	private void build(GL gl) {
+		int vertex = compile(gl, GL.GL_VERTEX_SHADER, VERTEX_SHADER);
+		int fragment = compile(gl, GL.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+		program = gl.glCreateProgram();
+		gl.glAttachShader(program, vertex);
+		gl.glAttachShader(program, fragment);
+		gl.glLinkProgram(program);
+		gl.glDeleteShader(vertex);
+		gl.glDeleteShader(fragment);
+
+		int[] status = new int[1];
+		gl.glGetProgramiv(program, GL.GL_LINK_STATUS, status, 0);
+		if (status[0] == 0) {
+			byte[] log = new byte[4096];
+			int[] length = new int[1];
+			gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+			gl.glDeleteProgram(program);
+			program = 0;
+			throw new RuntimeException("DisplacementGLRenderer: the shaders did not link: "+new String(log, 0, length[0]));
+		}
+
+		positionsLocation = gl.glGetUniformLocation(program, "positions");
+		imageLocation = gl.glGetUniformLocation(program, "image");
+		meshSizeLocation = gl.glGetUniformLocation(program, "meshSize");
+		uvScaleLocation = gl.glGetUniformLocation(program, "uvScale");
+		texturedLocation = gl.glGetUniformLocation(program, "textured");
+
+		// every vertex of the render grid only carries its place on the cloth, from 0 to 1
+		FloatBuffer grid = ByteBuffer.allocateDirect(renderSize*renderSize*2*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int i=0; i < renderSize; i++) {
+			for (int j=0; j < renderSize; j++) {
+				grid.put(i/(float)(renderSize-1));
+				grid.put(j/(float)(renderSize-1));
+			}
+		}
+		grid.rewind();
+		IntBuffer indices = RetainedGLRenderer.stripIndices(renderSize);
+		indexCount = indices.capacity();
+
+		gl.glGenBuffers(2, buffers, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, renderSize*renderSize*2*4, grid, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexCount*4, indices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Compiles a shader.
+	 */
+	private static int compile(GL gl, int type, String source) {
+		int shader = gl.glCreateShader(type);
+		gl.glShaderSource(shader, 1, new String[] { source }, new int[] { source.length() }, 0);
+		gl.glCompileShader(shader);
+
+		int[] status = new int[1];
+		gl.glGetShaderiv(shader, GL.GL_COMPILE_STATUS, status, 0);
+		if (status[0] == 0) {
+			byte[] log = new byte[4096];
+			int[] length = new int[1];
+			gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+			gl.glDeleteShader(shader);
+			throw new RuntimeException("DisplacementGLRenderer: a shader did not compile: "+new String(log, 0, length[0]));
+		}
+		return shader;
+	}
+
+	/**
+	 * Allocates the positions texture for a mesh size.
+	 */
+	private void allocatePositions(GL gl, int size) {
+		meshSize = size;
+		positions = ByteBuffer.allocateDirect(size*size*3*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+		if (positionTexture[0] == 0) gl.glGenTextures(1, positionTexture, 0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, positionTexture[0]);
+		// the shader does its own interpolation
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGB32F_ARB, size, size, 0, GL.GL_RGB, GL.GL_FLOAT, null);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+	}
+
+	/**
+	 * Packs the particle positions and uploads them to the positions texture.
+	 */
+	private void uploadPositions(GL gl, float[] x, float[] y, float[] z) {
+		int count = meshSize*meshSize;
+
+		positions.rewind();
+		for (int k=0; k < count; k++) {
+			positions.put(x[k]);
+			positions.put(y[k]);
+			positions.put(z[k]);
+		}
+		positions.rewind();
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, positionTexture[0]);
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, meshSize, meshSize, GL.GL_RGB, GL.GL_FLOAT, positions);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+	}
+
+	public void beginTrail(ImageCloth cloth, float keep) {
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+		trail.begin(gl, p.width, p.height, keep);
+		pgl.endGL();
+	}
+
+	public void endTrail(ImageCloth cloth) {
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+		trail.end(gl);
+		pgl.endGL();
+	}
+
+	/**
+	 * Releases the program, the buffers and the textures.
+	 * <p>Call this from the drawing thread, while the OpenGL context is current.</p>
+	 */
+	public void dispose() {
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+		if (program != 0) gl.glDeleteProgram(program);
+		if (buffers[0] != 0) gl.glDeleteBuffers(2, buffers, 0);
+		if (positionTexture[0] != 0) gl.glDeleteTextures(1, positionTexture, 0);
+		texture.dispose(gl);
+		trail.dispose(gl);
+		pgl.endGL();
+
+		program = buffers[0] = buffers[1] = positionTexture[0] = 0;
+		meshSize = -1;
+	}
+
+	public int getRenderSize() { return renderSize; }
+}
@@ -0,0 +1,244 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Hands video frames from a capture thread to the drawing thread without locking.
+ * <p>The frames go through a TripleBuffer of three preallocated pixel buffers. The capture
+ * side copies or writes each frame into the back buffer and publishes it; the drawing side
+ * calls update() at the start of each frame, which points the pixels of getImage() at the
+ * last complete frame. Neither side waits for the other, the drawing side never sees a half
+ * written frame, and frames the drawing side had no time for are simply dropped.</p>
+ * <p>Buffers are only reallocated when the size of the frames changes. Give getImage() to the
+ * ImageCloth, and the cloth calls update() itself once set with setFrameExchange().</p>
+ * <p>Each frame is cut into tiles of TILE_SIZE pixels, hashed on the capture thread as it is
+ * published. A frame whose tiles all hash the same as the one on show is not marked as
+ * modified, so nothing is uploaded or redrawn for it, and the OpenGL renderers compare the
+ * hashes to upload only the tiles that changed. A noisy camera rarely gives two identical
+ * tiles; setNoiseBits() makes the hashes ignore the lowest bits of each channel.</p>
+ */
+/* $Id$ */
+public class FrameExchange {
+	public static final int TILE_SIZE = 32;
+
+	/**
+	 * Work done on every frame on the capture thread, before it is published.
+	 */
+	public interface Stage {
+		/**
+		 * Processes a frame. The pixels must not be changed or kept.
+		 *
+		 * @param pixels the pixels of the frame
+		 * @param width the width of the frame (in pixels)
+		 * @param height the height of the frame (in pixels)
+		 */
+		public void process(int[] pixels, int width, int height);
+	}
+
+	private TripleBuffer<Frame> frames;
+	private PImage image;
+	private volatile int noiseBits;
+	private volatile Stage stage;
+
+	// the tile hashes of the frame on show, by the drawing thread
+	private int[] shownHashes;
+	private int shownW;
+	private int shownH;
+
+	// statistics
+	private volatile long publishedCount;
+	private long takenCount;
+	private long identicalCount;
+	private int dirtyTileCount;
+
+	/**
+	 * Builds a FrameExchange.
+	 *
+	 * @param p the parent PApplet
+	 * @param width the width of the frames (in pixels)
+	 * @param height the height of the frames (in pixels)
+	 */
+	public FrameExchange(PApplet p, int width, int height) {
+		frames = new TripleBuffer<Frame>(new Frame(width, height), new Frame(width, height), new Frame(width, height));
+		image = p.createImage(width, height, PApplet.RGB);
+		Frame front = frames.getFront();
+		image.pixels = front.pixels;
+		hashTiles(front);
+		shownHashes = front.hashes.clone();
+		shownW = width;
+		shownH = height;
+	}
+
+	/**
+	 * Gets the pixels of the next frame to publish.
+	 * <p>Call this from the capture thread, write the whole frame and call publish(). The
+	 * buffer is reused, so it holds an older frame when it is handed out.</p>
+	 *
+	 * @param width the width of the frame (in pixels)
+	 * @param height the height of the frame (in pixels)
+	 * @return the pixels to write the frame to, at least width*height of them
+	 */
+	public int[] getBackPixels(int width, int height) {
+		Frame back = frames.getBack();
+		back.allocate(width, height);
+		return back.pixels;
+	}
+
+	/**
+	 * Publishes the frame written to the pixels returned by getBackPixels().
+	 * <p>Call this from the capture thread.</p>
+	 */
+	public void publish() {
+		Frame back = frames.getBack();
+		hashTiles(back);
+		Stage s = stage;
+		if (s != null) s.process(back.pixels, back.width, back.height);
+		frames.publish();
+		publishedCount++;
+	}
+
+	/**
+	 * Copies an image as the next frame and publishes it.
+	 * <p>Call this from the capture thread, for instance in captureEvent() right after reading
+	 * the Capture. The image itself is then only ever touched by the capture thread.</p>
+	 *
+	 * @param source the frame, with its pixels loaded
+	 */
+	public void publish(PImage source) {
+		int[] pixels = getBackPixels(source.width, source.height);
+		System.arraycopy(source.pixels, 0, pixels, 0, source.width*source.height);
+		publish();
+	}
+
+	/**
+	 * Scales an image as the next frame and publishes it.
+	 * <p>Call this from the capture thread. The frame is scaled straight into the back buffer.</p>
+	 *
+	 * @param source the frame, with its pixels loaded
+	 * @param scaler the scaler to the size of the published frames, or null to copy the frame
+	 */
+	public void publish(PImage source, FrameScaler scaler) {
+		if (scaler == null) {
+			publish(source);
+			return;
+		}
+		scaler.scale(source.pixels, source.width, source.height, getBackPixels(scaler.getWidth(), scaler.getHeight()));
+		publish();
+	}
+
+	/**
+	 * Switches the image to the last published frame, if there is a new one.
+	 * <p>Call this from the drawing thread, before the image is used. The image is marked as
+	 * modified when any of its tiles changed, so the renderers upload it again.</p>
+	 *
+	 * @return true if the image changed
+	 */
+	public boolean update() {
+		if (!frames.update()) return false;
+		Frame front = frames.getFront();
+		image.pixels = front.pixels;
+		image.width = front.width;
+		image.height = front.height;
+		takenCount++;
+
+		dirtyTileCount = compareTiles(front);
+		if (dirtyTileCount == 0) {
+			// same picture, leave the modified flag as it is
+			identicalCount++;
+			return false;
+		}
+		image.setModified(true);
+		return true;
+	}
+
+	/**
+	 * Hashes every tile of a frame.
+	 * <p>The frame is read row by row, each row feeding the hashes of the tiles it crosses.</p>
+	 */
+	private void hashTiles(Frame frame) {
+		int[] pixels = frame.pixels;
+		int[] hashes = frame.hashes;
+		int width = frame.width;
+		int bits = noiseBits;
+		// drop the lowest bits of every channel
+		int mask = 0xff000000 | ((0xff << bits) & 0xff)*0x010101;
+
+		for (int t=0; t < hashes.length; t++) {
+			hashes[t] = 0x811c9dc5;
+		}
+		for (int y=0; y < frame.height; y++) {
+			int row = y*width;
+			int tileRow = (y/TILE_SIZE)*frame.tilesX;
+			for (int tx=0; tx < frame.tilesX; tx++) {
+				int h = hashes[tileRow+tx];
+				int end = row+Math.min(width, (tx+1)*TILE_SIZE);
+				for (int k=row+tx*TILE_SIZE; k < end; k++) {
+					h = (h ^ (pixels[k] & mask))*16777619;
+				}
+				hashes[tileRow+tx] = h;
+			}
+		}
+	}
+
+	/**
+	 * Compares the tiles of a frame with the ones on show, which it then replaces.
+	 *
+	 * @return the number of tiles that changed
+	 */
+	private int compareTiles(Frame frame) {
+		int[] hashes = frame.hashes;
+		int dirty = 0;
+		if (frame.width != shownW || frame.height != shownH) {
+			dirty = hashes.length;
+			shownHashes = new int[hashes.length];
+			shownW = frame.width;
+			shownH = frame.height;
+		} else {
+			for (int t=0; t < hashes.length; t++) {
+				if (hashes[t] != shownHashes[t]) dirty++;
+			}
+		}
+		System.arraycopy(hashes, 0, shownHashes, 0, hashes.length);
+		return dirty;
+	}
+
+	public PImage getImage() { return image; }  // only use it on the drawing thread
+	public int[] getTileHashes() { return frames.getFront().hashes; }  // of the image, by row of tiles
+	public int getTilesX() { return frames.getFront().tilesX; }
+	public int getTilesY() { return frames.getFront().tilesY; }
+	public void setNoiseBits(int val) { noiseBits = Math.max(0, Math.min(8, val)); }  // per channel, ignored by the hashes
+	public int getNoiseBits() { return noiseBits; }
+	public void setStage(Stage val) { stage = val; }  // run on the capture thread, see MotionFlow
+	public Stage getStage() { return stage; }
+	public long getIdenticalCount() { return identicalCount; }  // frames taken with no tile changed
+	public int getDirtyTileCount() { return dirtyTileCount; }  // in the last frame taken
+	public long getPublishedCount() { return publishedCount; }
+	public long getTakenCount() { return takenCount; }  // the rest were dropped
+	public long getDroppedCount() { return publishedCount-takenCount; }
+
+	/**
+	 * A frame in one of the three slots.
+	 */
+	private static class Frame {
+		int[] pixels;
+		int width;
+		int height;
+		int[] hashes;
+		int tilesX;
+		int tilesY;
+
+		Frame(int width, int height) {
+			allocate(width, height);
+		}
+
+		void allocate(int width, int height) {
+			if (pixels != null && width == this.width && height == this.height) return;
+			pixels = new int[width*height];
+			this.width = width;
+			this.height = height;
+			tilesX = (width+TILE_SIZE-1)/TILE_SIZE;
+			tilesY = (height+TILE_SIZE-1)/TILE_SIZE;
+			hashes = new int[tilesX*tilesY];
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package facecloth;
+
+/**
+ * Scales video frames to a fixed size by area averaging.
+ * <p>Every output pixel is the average of the source pixels under it, each weighted by how much
+ * of it the output pixel covers, so any ratio works and a frame downscaled by a whole factor is
+ * a plain box filter. This keeps all the detail of a full resolution camera frame, where asking
+ * the camera for a smaller one leaves the quality to the driver.</p>
+ * <p>The filter is separable and done in integer arithmetic: the rows are first scaled across,
+ * in bands of source rows, then the columns down, in bands of output rows, each pass split
+ * across the threads of a SolverPool. The weight tables and the intermediate buffer are built
+ * once per frame size, so scaling does not allocate. A FrameScaler must only be used by one
+ * thread at a time, usually the thread of a FrameSource.</p>
+ */
+/* $Id$ */
+public class FrameScaler {
+	// the weights add up to 1 << WEIGHT_BITS
+	private static final int WEIGHT_BITS = 16;
+	// fractional bits kept between the passes, so the sums of the second pass fit in an int
+	private static final int EXTRA_BITS = 4;
+	private static final int MIN_ROWS = 8;
+
+	private int width;
+	private int height;
+	private SolverPool pool;
+
+	// the source frame size the tables were built for
+	private int sourceW = -1;
+	private int sourceH = -1;
+
+	// per output column and row: the first source pixel, and where its weights start
+	private int[] firstX, weightStartX, weightsX;
+	private int[] firstY, weightStartY, weightsY;
+
+	// the rows scaled across, one int per channel, width*3 per source row
+	private int[] across = new int[0];
+
+	// the frame being scaled
+	private int[] source;
+	private int[] target;
+	private SolverPool.Range acrossTask = new SolverPool.Range() {
+		public void run(int from, int to) {
+			scaleAcross(from, to);
+		}
+	};
+	private SolverPool.Range downTask = new SolverPool.Range() {
+		public void run(int from, int to) {
+			scaleDown(from, to);
+		}
+	};
+
+	/**
+	 * Builds a single-threaded FrameScaler.
+	 *
+	 * @param width the width of the scaled frames (in pixels)
+	 * @param height the height of the scaled frames (in pixels)
+	 */
+	public FrameScaler(int width, int height) {
+		this(width, height, null);
+	}
+
+	/**
+	 * Builds a FrameScaler.
+	 *
+	 * @param width the width of the scaled frames (in pixels)
+	 * @param height the height of the scaled frames (in pixels)
+	 * @param pool the worker pool to scale on, or null to run on the calling thread
+	 */
+	public FrameScaler(int width, int height, SolverPool pool) {
+		this.width = width;
+		this.height = height;
+		this.pool = pool;
+		firstX = new int[width];
+		weightStartX = new int[width+1];
+		firstY = new int[height];
+		weightStartY = new int[height+1];
+	}
+
+	/**
+	 * Scales a frame.
+	 *
+	 * @param pixels the pixels of the frame
+	 * @param sourceW the width of the frame (in pixels)
+	 * @param sourceH the height of the frame (in pixels)
+	 * @param scaled the pixels to write the scaled, opaque frame to, width*height of them
+	 */
+	public void scale(int[] pixels, int sourceW, int sourceH, int[] scaled) {
+		if (sourceW != this.sourceW || sourceH != this.sourceH) allocate(sourceW, sourceH);
+
+		source = pixels;
+		target = scaled;
+		if (pool == null) {
+			acrossTask.run(0, sourceH);
+			downTask.run(0, height);
+		} else {
+			pool.run(0, sourceH, MIN_ROWS, acrossTask);
+			pool.run(0, height, MIN_ROWS, downTask);
+		}
+		source = null;
+		target = null;
+	}
+
+	/**
+	 * Builds the weight tables and the intermediate buffer for a source frame size.
+	 */
+	private void allocate(int sourceW, int sourceH) {
+		this.sourceW = sourceW;
+		this.sourceH = sourceH;
+		weightsX = weights(sourceW, width, firstX, weightStartX);
+		weightsY = weights(sourceH, height, firstY, weightStartY);
+		across = new int[width*3*sourceH];
+	}
+
+	/**
+	 * Works out how much each source pixel adds to each output pixel along one axis.
+	 * <p>Output pixel o covers the source from o*sourceSize/size to (o+1)*sourceSize/size. In
+	 * units of 1/size of a source pixel, the bounds are whole numbers, and so are the overlaps.
+	 * The weights of each output pixel are rounded to add up to exactly 1 << WEIGHT_BITS.</p>
+	 *
+	 * @param sourceSize the number of source pixels
+	 * @param size the number of output pixels
+	 * @param first set to the first source pixel of each output pixel
+	 * @param start set to where the weights of each output pixel start, size+1 of them
+	 * @return the weights, one per source pixel covered, output pixel after output pixel
+	 */
+	private static int[] weights(int sourceSize, int size, int[] first, int[] start) {
+		// count the source pixels covered first
+		int count = 0;
+		for (int o=0; o < size; o++) {
+			long left = (long)o*sourceSize;
+			long right = left+sourceSize;
+			int s0 = (int)(left/size);
+			int s1 = (int)((right-1)/size);
+			first[o] = s0;
+			start[o] = count;
+			count += s1-s0+1;
+		}
+		start[size] = count;
+
+		int[] weights = new int[count];
+		for (int o=0; o < size; o++) {
+			long left = (long)o*sourceSize;
+			long right = left+sourceSize;
+			int total = 0;
+			int last = start[o+1]-1;
+			for (int w=start[o]; w < last; w++) {
+				long s = first[o]+w-start[o];
+				long overlap = Math.min(right, (s+1)*size)-Math.max(left, s*size);
+				weights[w] = (int)((overlap << WEIGHT_BITS)/sourceSize);
+				total += weights[w];
+			}
+			// the last pixel takes the rounding, so flat areas stay flat
+			weights[last] = (1 << WEIGHT_BITS)-total;
+		}
+		return weights;
+	}
+
+	/**
+	 * Scales source rows across into the intermediate buffer.
+	 */
+	private void scaleAcross(int from, int to) {
+		int shift = WEIGHT_BITS-EXTRA_BITS;
+		for (int y=from; y < to; y++) {
+			int row = y*sourceW;
+			int out = y*width*3;
+			for (int o=0; o < width; o++) {
+				int r = 0, g = 0, b = 0;
+				int s = row+firstX[o];
+				for (int w=weightStartX[o]; w < weightStartX[o+1]; w++, s++) {
+					int c = source[s];
+					int weight = weightsX[w];
+					r += ((c >> 16) & 0xff)*weight;
+					g += ((c >> 8) & 0xff)*weight;
+					b += (c & 0xff)*weight;
+				}
+				across[out++] = r >> shift;
+				across[out++] = g >> shift;
+				across[out++] = b >> shift;
+			}
+		}
+	}
+
+	/**
+	 * Scales the intermediate buffer down into output rows.
+	 */
+	private void scaleDown(int from, int to) {
+		int shift = WEIGHT_BITS+EXTRA_BITS;
+		int round = 1 << (shift-1);
+		int stride = width*3;
+		for (int o=from; o < to; o++) {
+			int out = o*width;
+			for (int x=0; x < width; x++) {
+				int r = round, g = round, b = round;
+				int s = firstY[o]*stride+x*3;
+				for (int w=weightStartY[o]; w < weightStartY[o+1]; w++, s += stride) {
+					int weight = weightsY[w];
+					r += across[s]*weight;
+					g += across[s+1]*weight;
+					b += across[s+2]*weight;
+				}
+				target[out+x] = 0xff000000 | (Math.min(255, r >> shift) << 16) | (Math.min(255, g >> shift) << 8) | Math.min(255, b >> shift);
+			}
+		}
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+}
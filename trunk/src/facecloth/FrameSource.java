@@ -0,0 +1,44 @@
+package facecloth;
+
+/**
+ * Feeds an ImageCloth with video frames.
+ * <p>A source publishes its frames to a FrameExchange from a thread of its own, and the cloth
+ * maps the last complete one each time it is drawn. Besides the live camera, there are sources
+ * reading frames from disk and generating them, so the whole pipeline from the frames to the
+ * screen can be run and timed on a machine with no camera.</p>
+ */
+/* $Id$ */
+public interface FrameSource {
+	/**
+	 * Starts publishing frames.
+	 *
+	 * @param frames the exchange to publish the frames to
+	 */
+	public void start(FrameExchange frames);
+
+	/**
+	 * Stops publishing frames and waits until the source is done with the exchange.
+	 */
+	public void stop();
+
+	/**
+	 * Gets the width of the frames.
+	 *
+	 * @return the width (in pixels)
+	 */
+	public int getWidth();
+
+	/**
+	 * Gets the height of the frames.
+	 *
+	 * @return the height (in pixels)
+	 */
+	public int getHeight();
+
+	/**
+	 * Gets the number of frames published since the source was last started.
+	 *
+	 * @return the frame count
+	 */
+	public long getFrameCount();
+}
@@ -0,0 +1,75 @@
+package facecloth;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The thread a FrameSource publishes its frames from, at a fixed rate.
+ * <p>A frame that falls behind by more than a period drops the backlog, so a slow source
+ * skips frames rather than playing them back late.</p>
+ */
+/* $Id$ */
+class FrameThread extends Thread {
+	/**
+	 * Publishes frames.
+	 */
+	interface Producer {
+		/**
+		 * Publishes the next frame, if there is one.
+		 *
+		 * @param frames the exchange to publish to
+		 * @return true if a frame was published
+		 */
+		public boolean publish(FrameExchange frames);
+	}
+
+	volatile boolean running = true;
+	volatile long frameCount;
+
+	private FrameExchange frames;
+	private float rate;
+	private Producer producer;
+
+	/**
+	 * Builds a FrameThread.
+	 *
+	 * @param name the name of the thread
+	 * @param frames the exchange to publish to
+	 * @param rate the number of calls to the producer per second, 0 or less runs flat out
+	 * @param producer the producer of the frames
+	 */
+	FrameThread(String name, FrameExchange frames, float rate, Producer producer) {
+		super(name);
+		this.frames = frames;
+		this.rate = rate;
+		this.producer = producer;
+		// do not keep the sketch alive
+		setDaemon(true);
+	}
+
+	public void run() {
+		long next = System.nanoTime();
+		while (running) {
+			if (producer.publish(frames)) frameCount++;
+			if (rate <= 0) continue;
+
+			long period = (long)(1e9/rate);
+			next += period;
+			long wait = next-System.nanoTime();
+			if (wait < -period) next = System.nanoTime();
+			else if (wait > 0) LockSupport.parkNanos(wait);
+		}
+	}
+
+	/**
+	 * Stops the thread and waits for it to finish.
+	 */
+	void finish() {
+		running = false;
+		LockSupport.unpark(this);
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
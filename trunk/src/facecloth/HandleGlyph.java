@@ -0,0 +1,64 @@
+package facecloth;
+
+/**
+ * The corner handle glyph, tessellated once into triangles.
+ * <p>The glyph is four arms around the handle point, each one a triangle pointing at the handle
+ * with a rounded Bezier cap. Each arm is convex, so it is stored as a fan of triangles from its
+ * tip. Drawing a handle is then just a translation of these triangles, with no curves to
+ * evaluate and no matrix changes.</p>
+ */
+/* $Id$ */
+class HandleGlyph {
+	// the number of segments of each cap
+	static final int CAP_SEGMENTS = 8;
+
+	// triangle corners relative to the handle point, x0, y0, x1, y1, x2, y2 per triangle
+	static final float[] TRIANGLES = tessellate();
+	static final int TRIANGLE_COUNT = TRIANGLES.length/6;
+
+	/**
+	 * Tessellates the four arms of the glyph.
+	 */
+	private static float[] tessellate() {
+		float[] t = new float[4*CAP_SEGMENTS*6];
+		int n = 0;
+
+		for (int arm=0; arm < 4; arm++) {
+			double a = Math.PI/2*arm;
+			float cos = (float)Math.cos(a);
+			float sin = (float)Math.sin(a);
+
+			float pX = -4, pY = -17;
+			for (int s=1; s <= CAP_SEGMENTS; s++) {
+				float u = s/(float)CAP_SEGMENTS;
+				float qX = bezier(-4, -3, 3, 4, u);
+				float qY = bezier(-17, -20, -20, -17, u);
+
+				// one triangle from the tip of the arm to a segment of the cap
+				n = put(t, n, 0, -5, cos, sin);
+				n = put(t, n, pX, pY, cos, sin);
+				n = put(t, n, qX, qY, cos, sin);
+				pX = qX;
+				pY = qY;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Evaluates a cubic Bezier curve.
+	 */
+	private static float bezier(float a, float b, float c, float d, float u) {
+		float v = 1-u;
+		return v*v*v*a + 3*v*v*u*b + 3*v*u*u*c + u*u*u*d;
+	}
+
+	/**
+	 * Stores a rotated point.
+	 */
+	private static int put(float[] t, int n, float x, float y, float cos, float sin) {
+		t[n++] = x*cos - y*sin;
+		t[n++] = x*sin + y*cos;
+		return n;
+	}
+}
@@ -1,7 +1,7 @@
 package facecloth;
 
+import java.util.concurrent.locks.LockSupport;
 import processing.core.*;
-import traer.physics.*;
 
 /**
  * A cloth with a PImage mapped onto it.
@@ -16,9 +16,28 @@ public class ImageCloth {
 
 	public static final int MARGIN = 20;
 
+	public static final float TIME_STEP = (float)0.1;
+	public static final float PHYSICS_RATE = 60;
+	public static final int MAX_SUBSTEPS = 4;
+
+	public static final float SPRING_STRENGTH = (float)8.0;
+
+	public static final float SLEEP_SPEED = (float)0.05;
+	public static final int SLEEP_DELAY = 60;
+
+	public static final float CULL_MARGIN = 4;
+
+	public static final float TRAIL_HALF_LIFE = (float)0.25;
+	public static final int TRAIL_HALF_LIVES = 10;
+
+	public static final float REDRAW_DISTANCE = (float)0.1;
+	public static final int REDRAW_FRAMES = 2;
+
 	// environment attributes
 	private PApplet p;
 	private PImage mappedImage;
+	private FrameExchange frameExchange;
+	private FrameSource frameSource;
 	private int foregroundColour;
 	private int[] handleColours;
 
@@ -26,15 +45,89 @@ public class ImageCloth {
 	private boolean drawHandles = false;
 	private boolean drawOutlines = false;
 	private boolean drawMesh = false;
+	private ClothRenderer renderer;
+
+	// trail mode
+	private boolean trail = false;
+	private float trailHalfLife = TRAIL_HALF_LIFE;
+	private long lastTrailTime = -1;
 
 	// physics attributes
-	private ParticleSystem physics;
-	private Particle[][] particles;
+	private ClothMesh mesh;
+	private ClothSolver solver;
 	private int meshSize;
+	private int clothWidth;
+	private int clothHeight;
 	private float meshWidth;
 	private float meshHeight;
-	private int sampleW;
-	private int sampleH;
+	private float sampleW;
+	private float sampleH;
+	private float springStrength = SPRING_STRENGTH;
+
+	// time stepping
+	private boolean timeBased = false;
+	private float timeStep = TIME_STEP;
+	private float physicsRate = PHYSICS_RATE;
+	private int maxSubsteps = MAX_SUBSTEPS;
+	private long lastStepTime = -1;
+	private float accumulator;
+	private int substeps;
+	private boolean hasPrevious = false;
+
+	// rest detection
+	private float sleepSpeed = SLEEP_SPEED;
+	private int sleepDelay = SLEEP_DELAY;
+	private int restingSteps;
+	private boolean asleep = false;
+	private long stepCount;
+	private long sleptStepCount;
+	private long sleepCount;
+	private long stepTime;
+
+	// frame timing
+	private long frameStepTime;
+	private long frameDrawTime;
+
+	// render state
+	private float[] previousX, previousY, previousZ;
+	private float[] interpolatedX, interpolatedY, interpolatedZ;
+	private float[] drawX, drawY, drawZ;
+	private MeshBounds interpolatedBounds = new MeshBounds(0);
+	private int drawSize;
+	private MeshBounds drawBounds;
+	private SubdividedSurface surface;
+
+	// physics thread
+	private PhysicsThread physicsThread;
+	private TripleBuffer<Snapshot> snapshots;
+	private volatile long physicsStepTime;
+
+	// the grid last handed to the renderer
+	private float[] renderX, renderY, renderZ;
+	private int renderSize;
+	private boolean[] visibleBands = new boolean[0];
+	private UVTable uvTable = new UVTable();
+	private float[] handleX = new float[4];
+	private float[] handleY = new float[4];
+
+	// culling
+	private boolean culling = true;
+	private boolean viewportSet = false;
+	private float viewportLeft, viewportTop, viewportRight, viewportBottom;
+	private boolean[] visibleCells = new boolean[0];
+	private int culledBandCount;
+
+	// dirty frame tracking
+	private float[] drawnX, drawnY, drawnZ;
+	private float redrawDistance = REDRAW_DISTANCE;
+	private int redrawFrames = REDRAW_FRAMES;
+	private int unchangedFrames;
+	private long lastChangeTime;
+	private boolean changed = true;
+	// needsRedraw() brought the render state up to date for the draw() of this frame
+	private boolean stateCurrent;
+	private long drawnFrameCount;
+	private long skippedFrameCount;
 
 	/**
 	 * Builds an ImageCloth.
@@ -49,68 +142,126 @@ public class ImageCloth {
 	 * @param d the physics engine drag
 	 */
 	public ImageCloth(PApplet p, PImage mappedImage, int foregroundColour, int meshSize, int clothWidth, int clothHeight, float g, float d) {
+		this(p, mappedImage, foregroundColour, meshSize, clothWidth, clothHeight, g, d, new SpringSolver());
+	}
+
+	/**
+	 * Builds an ImageCloth mapping the frames of a FrameSource.
+	 * <p>The source is started straight away, see setFrameSource().</p>
+	 * 
+	 * @param p the parent PApplet
+	 * @param source the source of the mapped frames
+	 * @param foregroundColour the line colour
+	 * @param meshSize the number of rows and columns in the mesg
+	 * @param clothWidth the width of the cloth mesh (in pixels)
+	 * @param clothHeight the height of the cloth mesh (in pixels)
+	 * @param g the physics engine gravity
+	 * @param d the physics engine drag
+	 */
+	public ImageCloth(PApplet p, FrameSource source, int foregroundColour, int meshSize, int clothWidth, int clothHeight, float g, float d) {
+		this(p, (PImage)null, foregroundColour, meshSize, clothWidth, clothHeight, g, d, new SpringSolver());
+		setFrameSource(source);
+	}
+
+	/**
+	 * Builds an ImageCloth running on the given physics engine.
+	 * 
+	 * @param p the parent PApplet
+	 * @param mappedImage the mapped PImage
+	 * @param foregroundColour the line colour
+	 * @param meshSize the number of rows and columns in the mesg
+	 * @param clothWidth the width of the cloth mesh (in pixels)
+	 * @param clothHeight the height of the cloth mesh (in pixels)
+	 * @param g the physics engine gravity
+	 * @param d the physics engine drag
+	 * @param solver the physics engine: a SpringSolver, a VerletSolver or an ImplicitSolver
+	 */
+	public ImageCloth(PApplet p, PImage mappedImage, int foregroundColour, int meshSize, int clothWidth, int clothHeight, float g, float d, ClothSolver solver) {
 		this.p = p;
 		this.mappedImage = mappedImage;
 		this.foregroundColour = foregroundColour;
 
 		this.meshSize = meshSize;
+		this.clothWidth = clothWidth;
+		this.clothHeight = clothHeight;
+		updateDimensions();
 
-		meshWidth = clothWidth+(clothWidth/meshSize);
-		meshHeight = clothHeight/2-(clothHeight/meshSize);
-
-		sampleW = clothWidth/meshSize;
-		sampleH = clothHeight/meshSize;
+		renderer = new PAppletRenderer(p);
 
 		handleColours = new int[4];
 		handleColours[TOP_LEFT] = handleColours[TOP_RIGHT] = handleColours[BOTTOM_LEFT] = handleColours[BOTTOM_RIGHT] = foregroundColour;
 
 		// init the physics engine 
-		physics = new ParticleSystem(g, d);
-		particles = new Particle[meshSize][meshSize];
+		mesh = new ClothMesh(meshSize, g, d);
+		this.solver = solver;
 
 		buildMesh();
 		resetHandles();
 		fixHandles();
+		updateRenderState();
+	}
+
+	/**
+	 * Updates the mesh and texture sampling steps for the current mesh size.
+	 * <p>The steps are fractional, so the mesh size does not need to divide the cloth size.</p>
+	 */
+	private void updateDimensions() {
+		meshWidth = clothWidth+(clothWidth/(float)meshSize);
+		meshHeight = clothHeight/(float)2-(clothHeight/(float)meshSize);
+
+		sampleW = clothWidth/(float)meshSize;
+		sampleH = clothHeight/(float)meshSize;
+	}
+
+	/**
+	 * Changes the resolution of the cloth mesh, keeping its current shape.
+	 * <p>The positions and velocities of the particles are resampled onto the new grid, the
+	 * pinned handles stay where they are and the springs are rebuilt for the new spacing.</p>
+	 * 
+	 * @param val the new number of rows and columns in the mesh, at least 2
+	 */
+	public synchronized void setMeshSize(int val) {
+		val = Math.max(2, val);
+		if (val == meshSize) return;
+
+		ClothMesh previous = mesh;
+		meshSize = val;
+		updateDimensions();
+
+		mesh = new ClothMesh(meshSize, previous.getGravity(), previous.getDrag());
+		buildMesh();
+		mesh.resample(previous);
+
+		// the previous physics state does not match the new grid
+		hasPrevious = false;
+		updateRenderState();
 	}
 
 	/**
 	 * Builds the cloth mesh.
 	 */
-	public void buildMesh() {
+	public synchronized void buildMesh() {
 		float meshStepX = (float)(meshWidth/meshSize);
 		float meshStepY = (float)(meshHeight/meshSize);
 
-		// create a grid of particles
-		for (int i=0; i < meshSize; i++) {
-			for (int j=0; j < meshSize; j++) {
-				particles[i][j] = physics.makeParticle((float)0.2, i*meshStepX, j*meshStepY, (float)0.0);
-				if (i > 0) {
-					// add horizontal springs
-					physics.makeSpring(particles[i-1][j], particles[i][j], (float)8.0, (float)0.5, meshStepX);
-				}
-			}
-		}
-
-		// add vertical springs    
-		for (int i=0; i < meshSize; i++) {
-			for (int j=1; j < meshSize; j++) {
-				physics.makeSpring(particles[i][j-1], particles[i][j], (float)8.0, (float)0.5, meshStepY);
-			}
-		}
+		// create a grid of particles linked by horizontal and vertical springs
+		mesh.buildGrid(meshStepX, meshStepY, (float)0.2, springStrength, (float)0.5);
+		wake();
 	}
 
 	/**
 	 * Resets and fixes the mesh corner handles to their original position.
 	 */
-	public void resetHandles() {
+	public synchronized void resetHandles() {
 		// top-left corner point
-		particles[0][0].moveTo(MARGIN, MARGIN, 0);
+		mesh.moveTo(mesh.index(0, 0), MARGIN, MARGIN, 0);
 		// top-right corner point
-		particles[meshSize-1][0].moveTo(p.width-MARGIN, MARGIN, 0);
+		mesh.moveTo(mesh.index(meshSize-1, 0), p.width-MARGIN, MARGIN, 0);
 		// bottom-left corner point
-		particles[0][meshSize-1].moveTo(MARGIN, p.height-MARGIN, 0);
+		mesh.moveTo(mesh.index(0, meshSize-1), MARGIN, p.height-MARGIN, 0);
 		// bottom-right corner point
-		particles[meshSize-1][meshSize-1].moveTo(p.width-MARGIN, p.height-MARGIN, 0);
+		mesh.moveTo(mesh.index(meshSize-1, meshSize-1), p.width-MARGIN, p.height-MARGIN, 0);
+		wake();
 	}
 
 	/** 
@@ -119,8 +270,8 @@ public class ImageCloth {
 	 * @param x x-index of the point in the mesh
 	 * @param y y-index of the point in the mesh
 	 */
-	public void fixMeshPoint(int x, int y) {
-		particles[x][y].makeFixed(); 
+	public synchronized void fixMeshPoint(int x, int y) {
+		mesh.makeFixed(mesh.index(x, y)); 
 	}
 
 	/** 
@@ -153,7 +304,7 @@ public class ImageCloth {
 	 * @return whether or not the mesh point is fixed
 	 */
 	public boolean meshPointIsFixed(int x, int y) {
-		return particles[x][y].isFixed();
+		return mesh.fixed[mesh.index(x, y)];
 	}
 
 	/**
@@ -196,8 +347,9 @@ public class ImageCloth {
 	 * @param x x-index of the point in the mesh
 	 * @param y y-index of the point in the mesh
 	 */
-	public void freeMeshPoint(int x, int y) {
-		particles[x][y].makeFree(); 
+	public synchronized void freeMeshPoint(int x, int y) {
+		mesh.makeFree(mesh.index(x, y)); 
+		wake();
 	}
 
 	/** 
@@ -231,8 +383,31 @@ public class ImageCloth {
 	 * @param vy y-value of new velocity
 	 * @param vz z-value of new velocity
 	 */
-	public void setMeshPointVelocity(int x, int y, float vx, float vy, float vz) {
-		particles[x][y].setVelocity(vx, vy, vz); 
+	public synchronized void setMeshPointVelocity(int x, int y, float vx, float vy, float vz) {
+		int k = mesh.index(x, y);
+		if (vx == mesh.vx[k] && vy == mesh.vy[k] && vz == mesh.vz[k]) return;
+
+		mesh.setVelocity(k, vx, vy, vz); 
+		wake();
+	}
+
+	/**
+	 * Adds to the velocities of all the free mesh points at once.
+	 * <p>This takes the lock once for the whole mesh, where setMeshPointVelocity() would take
+	 * it once per point, which matters with the physics running on its own thread.</p>
+	 * 
+	 * @param dvx the x-values to add, the point at x-index i and y-index j at i*size+j
+	 * @param dvy the y-values to add
+	 * @param dvz the z-values to add, or null to leave z alone
+	 * @param size the number of rows and columns the arrays are laid out for
+	 * @return false if the mesh has another size by now, nothing is added then
+	 */
+	public synchronized boolean addMeshVelocities(float[] dvx, float[] dvy, float[] dvz, int size) {
+		if (size != meshSize) return false;
+
+		mesh.addVelocities(dvx, dvy, dvz);
+		wake();
+		return true;
 	}
 
 	/** 
@@ -266,8 +441,8 @@ public class ImageCloth {
 	 * @param x x-index of the point in the mesh
 	 * @param y y-index of the point in the mesh
 	 */
-	public void clearMeshPointVelocity(int x, int y) {
-		particles[x][y].velocity().clear(); 
+	public synchronized void clearMeshPointVelocity(int x, int y) {
+		mesh.setVelocity(mesh.index(x, y), 0, 0, 0); 
 	}
 
 	/** 
@@ -299,8 +474,9 @@ public class ImageCloth {
 	 * @param y y-index of the point in the mesh
 	 * @return the mesh point position as a Point
 	 */
-	public PVector getMeshPointPosition(int x, int y) {
-		return new PVector(particles[x][y].position().x(), particles[x][y].position().y());
+	public synchronized PVector getMeshPointPosition(int x, int y) {
+		int k = mesh.index(x, y);
+		return new PVector(mesh.x[k], mesh.y[k]);
 	}
 
 	/**
@@ -333,8 +509,12 @@ public class ImageCloth {
 	 * @param nY new y-coordinate of the point
 	 * @param nZ new z-coordinate of the point
 	 */
-	public void setMeshPointPosition(int x, int y, float nX, float nY, float nZ) {
-		particles[x][y].moveTo(nX, nY, nZ);
+	public synchronized void setMeshPointPosition(int x, int y, float nX, float nY, float nZ) {
+		int k = mesh.index(x, y);
+		if (nX == mesh.x[k] && nY == mesh.y[k] && nZ == mesh.z[k]) return;
+
+		mesh.moveTo(k, nX, nY, nZ);
+		wake();
 	}
 
 	/**
@@ -371,8 +551,12 @@ public class ImageCloth {
 	 * @param dY y-coordinate offset of the point
 	 * @param dZ z-coordinate offset of the point
 	 */
-	public void offsetMeshPointPosition(int x, int y, float dX, float dY, float dZ) {
-		particles[x][y].moveTo(particles[x][y].position().x()+dX, particles[x][y].position().y()+dY, particles[x][y].position().z()+dZ);
+	public synchronized void offsetMeshPointPosition(int x, int y, float dX, float dY, float dZ) {
+		if (dX == 0 && dY == 0 && dZ == 0) return;
+
+		int k = mesh.index(x, y);
+		mesh.moveTo(k, mesh.x[k]+dX, mesh.y[k]+dY, mesh.z[k]+dZ);
+		wake();
 	}
 
 	/**
@@ -413,74 +597,546 @@ public class ImageCloth {
 		handleColours[TOP_RIGHT] = tR;
 		handleColours[BOTTOM_LEFT] = bL;
 		handleColours[BOTTOM_RIGHT] = bR;   
+		invalidate();
 	}
 
 	/**
 	 * Computes the required changes for the next frame.
+	 * <p>Each physics step holds the lock of the cloth, like on the physics thread, so that other
+	 * threads, such as the capture thread running a MotionFlow, can push the mesh meanwhile.</p>
 	 */
 	public void step() {
-		physics.advanceTime((float)0.1);
+		// the physics thread steps the cloth by itself
+		if (snapshots != null) {
+			frameStepTime = 0;
+			return;
+		}
+
+		if (!timeBased) {
+			long start = System.nanoTime();
+			synchronized (this) {
+				advance();
+			}
+			frameStepTime = System.nanoTime()-start;
+			return;
+		}
+
+		// measure the real time elapsed since the last call
+		long now = System.nanoTime();
+		float elapsed = (lastStepTime < 0) ? 0 : (now-lastStepTime)/1e9f;
+		lastStepTime = now;
+
+		step(elapsed);
+	}
+
+	/**
+	 * Advances the simulation by the given amount of real time.
+	 * <p>The time is accumulated and consumed in fixed physics steps of timeStep, physicsRate
+	 * times per second, so the cloth moves at the same speed whatever the frame rate. At most
+	 * maxSubsteps steps are taken per call; any time beyond that is dropped rather than carried
+	 * over, so that a slow frame cannot snowball into ever slower ones. Whatever is left over is
+	 * used by draw() to interpolate between the last two physics states.</p>
+	 * 
+	 * @param elapsed the time elapsed since the last call (in seconds)
+	 */
+	public void step(float elapsed) {
+		if (snapshots != null) return;
+
+		long start = System.nanoTime();
+		float period = 1/physicsRate;
+
+		accumulator += elapsed;
+		substeps = (int)(accumulator/period);
+		if (substeps > maxSubsteps) {
+			// drop the backlog
+			substeps = maxSubsteps;
+			accumulator = substeps*period;
+		}
+		accumulator -= substeps*period;
+
+		for (int s=0; s < substeps; s++) {
+			// take the lock step by step, the other threads get their turn in between
+			synchronized (this) {
+				// keep the state before the last step to interpolate from
+				if (s == substeps-1) savePrevious();
+				advance();
+			}
+		}
+		frameStepTime = System.nanoTime()-start;
+	}
+
+	/**
+	 * Runs one physics step, unless the cloth is asleep.
+	 *
+	 * @return true if the particles were stepped
+	 */
+	private boolean advance() {
+		if (asleep) {
+			sleptStepCount++;
+			return false;
+		}
+
+		long start = System.nanoTime();
+		// split the step for integrators that are not stable at it, the cloth moves at the same speed
+		int splits = 1;
+		if (solver instanceof SpringSolver) {
+			float limit = ((SpringSolver)solver).getMaxStableStep(mesh);
+			if (limit > 0 && timeStep > limit) splits = (int)Math.ceil(timeStep/limit);
+		}
+		for (int n=0; n < splits; n++) {
+			solver.step(mesh, timeStep/splits);
+		}
+		stepTime += System.nanoTime()-start;
+		stepCount++;
+
+		// update the column bounds, and put the cloth to sleep once every free particle has been slow for a while
+		float speedSquared = mesh.measure();
+		if (sleepSpeed > 0 && speedSquared < sleepSpeed*sleepSpeed) {
+			if (++restingSteps >= sleepDelay) {
+				asleep = true;
+				sleepCount++;
+			}
+		} else {
+			restingSteps = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Starts stepping the physics on a thread of its own, physicsRate times per second.
+	 * <p>After every step, the particle positions are copied into a snapshot and published
+	 * through a TripleBuffer; draw() picks up the latest snapshot without ever waiting for the
+	 * physics, so a slow frame and a slow step no longer hold each other up. step() does
+	 * nothing while the thread runs. The methods that move, fix or rebuild the mesh can still
+	 * be called from the sketch; they wait for the step in progress, if any, to finish.</p>
+	 * <p>The snapshots are drawn as they are, without interpolation, so the physics rate should
+	 * be at least the frame rate. A SolverPool given to the solver is then driven by the physics
+	 * thread only, and should not be shared with a renderer.</p>
+	 */
+	public void startPhysicsThread() {
+		if (physicsThread != null) return;
+
+		synchronized (this) {
+			Snapshot a = new Snapshot(), b = new Snapshot(), c = new Snapshot();
+			a.copy(mesh);
+			b.copy(mesh);
+			c.copy(mesh);
+			snapshots = new TripleBuffer<Snapshot>(a, b, c);
+		}
+		physicsThread = new PhysicsThread();
+		physicsThread.start();
+	}
+
+	/**
+	 * Stops the physics thread and waits for it to finish, going back to stepping the cloth
+	 * from step().
+	 */
+	public void stopPhysicsThread() {
+		if (physicsThread == null) return;
+
+		physicsThread.running = false;
+		try {
+			physicsThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		physicsThread = null;
+		snapshots = null;
+
+		lastStepTime = -1;
+		accumulator = 0;
+		hasPrevious = false;
+		updateRenderState();
+	}
+
+	/**
+	 * Copies the mesh into the back snapshot and publishes it.
+	 */
+	private void publish() {
+		snapshots.getBack().copy(mesh);
+		snapshots.publish();
+	}
+
+	/**
+	 * Steps the cloth at the physics rate, publishing every step that moved it.
+	 * <p>A step that falls behind by more than maxSubsteps periods drops the backlog, like
+	 * step(float) does. The thread pauses after every step, if only for an eighth of a period,
+	 * so that the sketch can take the lock to move the mesh.</p>
+	 */
+	private class PhysicsThread extends Thread {
+		volatile boolean running = true;
+
+		PhysicsThread() {
+			super("ImageCloth physics");
+			// do not keep the sketch alive
+			setDaemon(true);
+		}
+
+		public void run() {
+			long next = System.nanoTime();
+			while (running) {
+				long start = System.nanoTime();
+				synchronized (ImageCloth.this) {
+					if (advance()) publish();
+				}
+				physicsStepTime = System.nanoTime()-start;
+
+				long period = (long)(1e9/physicsRate);
+				next += period;
+				long wait = next-System.nanoTime();
+				if (wait < -maxSubsteps*period) next = System.nanoTime();
+				// pause even when behind, or the sketch might never get the lock
+				LockSupport.parkNanos(Math.max(wait, period/8));
+			}
+		}
+	}
+
+	/**
+	 * The particle positions after a physics step, with their column bounds.
+	 */
+	private static class Snapshot {
+		int size;
+		float[] x = new float[0], y = new float[0], z = new float[0];
+		MeshBounds bounds = new MeshBounds(0);
+
+		void copy(ClothMesh mesh) {
+			size = mesh.size;
+			if (x.length != mesh.count) {
+				x = new float[mesh.count];
+				y = new float[mesh.count];
+				z = new float[mesh.count];
+			}
+			System.arraycopy(mesh.x, 0, x, 0, mesh.count);
+			System.arraycopy(mesh.y, 0, y, 0, mesh.count);
+			System.arraycopy(mesh.z, 0, z, 0, mesh.count);
+			bounds.copy(mesh.bounds);
+		}
+	}
+
+	/**
+	 * Wakes the cloth up if it was asleep.
+	 * <p>This is called whenever the mesh is moved, pushed or released through the API.</p>
+	 */
+	public synchronized void wake() {
+		asleep = false;
+		restingSteps = 0;
+	}
+
+	/**
+	 * Saves the current particle positions as the previous physics state.
+	 */
+	private void savePrevious() {
+		if (previousX == null || previousX.length < mesh.count) {
+			previousX = new float[mesh.count];
+			previousY = new float[mesh.count];
+			previousZ = new float[mesh.count];
+		}
+		System.arraycopy(mesh.x, 0, previousX, 0, mesh.count);
+		System.arraycopy(mesh.y, 0, previousY, 0, mesh.count);
+		System.arraycopy(mesh.z, 0, previousZ, 0, mesh.count);
+		hasPrevious = true;
+	}
+
+	/**
+	 * Updates the positions draw() renders from.
+	 * <p>In time-based mode, free particles are blended between the last two physics states
+	 * by the fraction of a physics step left in the accumulator. Fixed particles are drawn where
+	 * they are, so that dragged handles do not lag behind the pointer.</p>
+	 */
+	private void updateRenderState() {
+		if (snapshots != null) {
+			// show the latest step of the physics thread
+			snapshots.update();
+			Snapshot s = snapshots.getFront();
+			drawX = s.x;
+			drawY = s.y;
+			drawZ = s.z;
+			drawSize = s.size;
+			drawBounds = s.bounds;
+			return;
+		}
+
+		drawSize = meshSize;
+		if (!timeBased || !hasPrevious) {
+			drawX = mesh.x;
+			drawY = mesh.y;
+			drawZ = mesh.z;
+			drawBounds = mesh.bounds;
+			return;
+		}
+
+		if (interpolatedX == null || interpolatedX.length < mesh.count) {
+			interpolatedX = new float[mesh.count];
+			interpolatedY = new float[mesh.count];
+			interpolatedZ = new float[mesh.count];
+		}
+
+		float alpha = Math.min(1, accumulator*physicsRate);
+		boolean[] fixed = mesh.fixed;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		// bound the blended columns as they are written
+		interpolatedBounds.allocate(meshSize);
+		for (int i=0; i < meshSize; i++) {
+			interpolatedBounds.reset(i);
+			for (int k=i*meshSize; k < (i+1)*meshSize; k++) {
+				if (fixed[k]) {
+					interpolatedX[k] = x[k];
+					interpolatedY[k] = y[k];
+					interpolatedZ[k] = z[k];
+				} else {
+					interpolatedX[k] = previousX[k] + (x[k]-previousX[k])*alpha;
+					interpolatedY[k] = previousY[k] + (y[k]-previousY[k])*alpha;
+					interpolatedZ[k] = previousZ[k] + (z[k]-previousZ[k])*alpha;
+				}
+				interpolatedBounds.include(i, interpolatedX[k], interpolatedY[k], interpolatedZ[k]);
+			}
+		}
+		interpolatedBounds.valid = true;
+		drawBounds = interpolatedBounds;
+
+		drawX = interpolatedX;
+		drawY = interpolatedY;
+		drawZ = interpolatedZ;
 	}
 
 	/**
 	 * Draws the mapped PImage on the cloth mesh.
 	 */
 	public void draw() {
-		if (drawMesh) p.stroke(foregroundColour);
-		else p.noStroke(); 
-		p.fill(255);
-
-		// draw quads to make a mesh out of the particles
-		p.beginShape(PApplet.QUADS);
-		for (int i=0; i < meshSize-1; i++) {
-			for (int j=0; j < meshSize-1; j++) {
-				// map the video feed to the mesh, one square at a time
-				p.texture(mappedImage);
-
-				p.vertex(particles[i][j].position().x(), particles[i][j].position().y(), particles[i][j].position().z(), i*sampleW, j*sampleH);
-				p.vertex(particles[i][j+1].position().x(), particles[i][j+1].position().y(), particles[i][j+1].position().z(), i*sampleW, (j+1)*sampleH);
-				p.vertex(particles[i+1][j+1].position().x(), particles[i+1][j+1].position().y(), particles[i+1][j+1].position().z(), (i+1)*sampleW, (j+1)*sampleH);
-				p.vertex(particles[i+1][j].position().x(), particles[i+1][j].position().y(), particles[i+1][j].position().z(), (i+1)*sampleW, j*sampleH);    
-			}
+		long start = System.nanoTime();
+
+		// needsRedraw() already did this frame
+		if (!stateCurrent) {
+			if (frameExchange != null) frameExchange.update();
+			updateRenderState();
 		}
-		p.endShape();
+		stateCurrent = false;
+		if (surface != null) {
+			// draw a smooth surface through the mesh
+			surface.evaluate(drawX, drawY, drawZ, drawSize);
+			renderX = surface.x;
+			renderY = surface.y;
+			renderZ = surface.z;
+			renderSize = surface.getSize();
+		} else {
+			renderX = drawX;
+			renderY = drawY;
+			renderZ = drawZ;
+			renderSize = drawSize;
+		}
+		// the texture coordinates only change with the grid and image sizes
+		uvTable.update(renderSize, getTextureWidth(), getTextureHeight(), mappedImage.width, mappedImage.height);
+		updateVisibleBands();
+		if (trail) drawTrail();
+		else renderer.drawCloth(this, renderX, renderY, renderZ, renderSize);
 
 		if (drawOutlines) drawOutlines();     
 		if (drawHandles) drawHandles();
+
+		saveDrawn();
+		drawnFrameCount++;
+		frameDrawTime = System.nanoTime()-start;
 	}
 
 	/**
-	 * Draws an outline around the mesh.
+	 * Draws the cloth over the faded previous frames.
+	 * <p>The previous frames lose half their brightness every trailHalfLife seconds of real
+	 * time, whatever the frame rate. The first frame after the trail mode is turned on starts
+	 * from black.</p>
 	 */
-	public void drawOutlines() {
-		p.stroke(foregroundColour);
-		// horizontal lines
-		for (int i=0; i < meshSize-1; i++) {
-			p.line(particles[i][0].position().x(), particles[i][0].position().y(), particles[i+1][0].position().x(), particles[i+1][0].position().y());
-			p.line(particles[i][meshSize-1].position().x(), particles[i][meshSize-1].position().y(), particles[i+1][meshSize-1].position().x(), particles[i+1][meshSize-1].position().y());
+	private void drawTrail() {
+		long now = System.nanoTime();
+		float keep = 0;
+		if (lastTrailTime >= 0) {
+			float elapsed = (now-lastTrailTime)/1e9f;
+			keep = (trailHalfLife > 0) ? (float)Math.pow(0.5, elapsed/trailHalfLife) : 0;
+		}
+		lastTrailTime = now;
+
+		renderer.beginTrail(this, keep);
+		renderer.drawCloth(this, renderX, renderY, renderZ, renderSize);
+		renderer.endTrail(this);
+	}
+
+	/**
+	 * Works out which bands of the render grid can be seen.
+	 * <p>The band of quads between mesh columns c and c+1 is culled when the box around
+	 * columns c-1 to c+2 falls outside the viewport once projected by the default camera. The
+	 * extra columns and a margin of a quarter of the box cover the overshoot of the smooth
+	 * surface. The column boxes come from the last physics step or the interpolation, so this
+	 * does not touch the particles.</p>
+	 */
+	private void updateVisibleBands() {
+		if (visibleBands.length != renderSize-1) visibleBands = new boolean[renderSize-1];
+		if (visibleCells.length != drawSize-1) visibleCells = new boolean[drawSize-1];
+
+		MeshBounds b = drawBounds;
+		if (!b.valid) b.measure(drawX, drawY, drawZ, drawSize);
+
+		float left = viewportSet ? viewportLeft : 0;
+		float top = viewportSet ? viewportTop : 0;
+		float right = viewportSet ? viewportRight : p.width;
+		float bottom = viewportSet ? viewportBottom : p.height;
+		float cx = p.width/(float)2;
+		float cy = p.height/(float)2;
+		float eyeZ = (float)((p.height/2.0)/Math.tan(Math.PI/6));
+
+		for (int c=0; c < drawSize-1; c++) {
+			if (!culling) {
+				visibleCells[c] = true;
+				continue;
+			}
+
+			float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+			for (int i=Math.max(0, c-1); i <= Math.min(drawSize-1, c+2); i++) {
+				minX = Math.min(minX, b.minX[i]);
+				maxX = Math.max(maxX, b.maxX[i]);
+				minY = Math.min(minY, b.minY[i]);
+				maxY = Math.max(maxY, b.maxY[i]);
+				minZ = Math.min(minZ, b.minZ[i]);
+				maxZ = Math.max(maxZ, b.maxZ[i]);
+			}
+			float padX = CULL_MARGIN + (maxX-minX)/4;
+			float padY = CULL_MARGIN + (maxY-minY)/4;
+			minX -= padX;
+			maxX += padX;
+			minY -= padY;
+			maxY += padY;
+
+			if (maxZ >= eyeZ) {
+				// reaches past the camera, never cull it
+				visibleCells[c] = true;
+				continue;
+			}
+
+			// the box gets smaller towards the back and larger towards the camera
+			float near = eyeZ/(eyeZ-maxZ);
+			float far = eyeZ/(eyeZ-minZ);
+			float screenLeft = cx + Math.min((minX-cx)*near, (minX-cx)*far);
+			float screenRight = cx + Math.max((maxX-cx)*near, (maxX-cx)*far);
+			float screenTop = cy + Math.min((minY-cy)*near, (minY-cy)*far);
+			float screenBottom = cy + Math.max((maxY-cy)*near, (maxY-cy)*far);
+			visibleCells[c] = screenRight >= left && screenLeft <= right && screenBottom >= top && screenTop <= bottom;
+		}
+
+		// a cell of the mesh spans (renderSize-1)/(meshSize-1) bands of the render grid
+		int bandsPerCell = (renderSize-1)/(drawSize-1);
+		culledBandCount = 0;
+		for (int r=0; r < renderSize-1; r++) {
+			visibleBands[r] = visibleCells[r/bandsPerCell];
+			if (!visibleBands[r]) culledBandCount++;
+		}
+	}
+
+	/**
+	 * Checks whether the cloth would look any different if it was drawn now.
+	 * <p>It does if the mapped image has been modified since it was last drawn, if a display
+	 * option changed, or if any grid point moved more than the redraw distance since the last
+	 * draw. In the trail mode, it also does until the trail has faded out. A sketch that only
+	 * shows the cloth can then skip its draw() altogether.</p>
+	 * <p>The screen is usually double buffered, so the cloth keeps asking to be redrawn for a
+	 * few frames after the last change, until every buffer shows the same picture.</p>
+	 * <p>Call this once per frame: the frames it returns false for are counted as skipped. When
+	 * it returns true, it has already taken the new video frame and physics state, and the
+	 * draw() that follows in the same frame does not take them again.</p>
+	 *
+	 * @return true if the cloth needs to be drawn this frame
+	 */
+	public boolean needsRedraw() {
+		// a new video frame counts as a change
+		if (frameExchange != null) frameExchange.update();
+		updateRenderState();
+		stateCurrent = true;
+
+		if (changed || mappedImage.isModified() || moved()) {
+			changed = false;
+			unchangedFrames = 0;
+			lastChangeTime = System.nanoTime();
+			return true;
+		}
+		if (trail && System.nanoTime()-lastChangeTime < TRAIL_HALF_LIVES*trailHalfLife*1e9) {
+			// the trail is still fading out
+			return true;
+		}
+		if (unchangedFrames < redrawFrames-1) {
+			unchangedFrames++;
+			return true;
+		}
+		skippedFrameCount++;
+		// a later draw() must catch up by itself
+		stateCurrent = false;
+		return false;
+	}
+
+	/**
+	 * Makes the next call to needsRedraw() return true.
+	 * <p>Call this when something else the sketch draws changes. The display options of the
+	 * cloth call it themselves.</p>
+	 */
+	public void invalidate() {
+		changed = true;
+	}
+
+	/**
+	 * Checks whether any point moved more than the redraw distance since the last draw.
+	 */
+	private boolean moved() {
+		int count = drawSize*drawSize;
+		if (drawnX == null || drawnX.length != count) return true;
+
+		float d = redrawDistance;
+		for (int k=0; k < count; k++) {
+			if (Math.abs(drawX[k]-drawnX[k]) > d || Math.abs(drawY[k]-drawnY[k]) > d || Math.abs(drawZ[k]-drawnZ[k]) > d) return true;
 		}
+		return false;
+	}
 
-		// vertical lines
-		for (int j=0; j < meshSize-1; j++) {
-			p.line(particles[0][j].position().x(), particles[0][j].position().y(), particles[0][j+1].position().x(), particles[0][j+1].position().y());
-			p.line(particles[meshSize-1][j].position().x(), particles[meshSize-1][j].position().y(), particles[meshSize-1][j+1].position().x(), particles[meshSize-1][j+1].position().y());
+	/**
+	 * Saves the positions that were just drawn.
+	 */
+	private void saveDrawn() {
+		int count = drawSize*drawSize;
+		if (drawnX == null || drawnX.length != count) {
+			drawnX = new float[count];
+			drawnY = new float[count];
+			drawnZ = new float[count];
 		}
-		p.noStroke(); 
+		System.arraycopy(drawX, 0, drawnX, 0, count);
+		System.arraycopy(drawY, 0, drawnY, 0, count);
+		System.arraycopy(drawZ, 0, drawnZ, 0, count);
+	}
+
+	/**
+	 * Draws an outline around the mesh.
+	 */
+	public void drawOutlines() {
+		if (renderX == null) return;
+		renderer.drawOutlines(this, renderX, renderY, renderZ, renderSize);
 	}
 
 	/**
 	 * Draws handles at each corner point of the mesh.
 	 */
 	public void drawHandles() {
-		p.fill(handleColours[TOP_LEFT]);
-		drawHandle(particles[0][0].position().x(), particles[0][0].position().y());
-		p.fill(handleColours[TOP_RIGHT]);
-		drawHandle(particles[meshSize - 1][0].position().x(), particles[meshSize - 1][0].position().y());
-		p.fill(handleColours[BOTTOM_LEFT]);
-		drawHandle(particles[0][meshSize - 1].position().x(), particles[0][meshSize - 1].position().y());
-		p.fill(handleColours[BOTTOM_RIGHT]);
-		drawHandle(particles[meshSize - 1][meshSize - 1].position().x(), particles[meshSize - 1][meshSize - 1].position().y());
-		p.fill(255); 
+		// the corners of the grid being drawn, which may be a snapshot of an older mesh size
+		int last = drawSize-1;
+		int k;
+
+		k = 0;
+		handleX[TOP_LEFT] = drawX[k];
+		handleY[TOP_LEFT] = drawY[k];
+		k = last*drawSize;
+		handleX[TOP_RIGHT] = drawX[k];
+		handleY[TOP_RIGHT] = drawY[k];
+		k = last;
+		handleX[BOTTOM_LEFT] = drawX[k];
+		handleY[BOTTOM_LEFT] = drawY[k];
+		k = last*drawSize+last;
+		handleX[BOTTOM_RIGHT] = drawX[k];
+		handleY[BOTTOM_RIGHT] = drawY[k];
+
+		renderer.drawHandles(this, handleX, handleY, handleColours);
 	}
 	
 	/**
@@ -490,23 +1146,214 @@ public class ImageCloth {
 	 * @param y the y-coord of the handle
 	 */
 	public void drawHandle(float x, float y) {
-		p.pushMatrix();
-		p.translate(x, y);
+		float[] t = HandleGlyph.TRIANGLES;
+
 		p.noStroke();
-		for (int i=0; i < 4; i++) {
-			p.rotate(PApplet.PI/2*i);
-			p.bezier(-4, -17,  -3, -20,  3, -20,  4, -17);	
-			p.triangle(-4, -17, 4, -17, 0, -5);
+		p.beginShape(PApplet.TRIANGLES);
+		for (int n=0; n < t.length; n += 2) {
+			p.vertex(x+t[n], y+t[n+1]);
 		}
-		p.popMatrix();
+		p.endShape();
+	}
+
+	public synchronized void setGravity(float g) { 
+		if (g == mesh.getGravity()) return;
+		mesh.setGravity(g); 
+		wake();
+	}
+	public synchronized void setSpringStrength(float val) {  // stiff springs need a VerletSolver or an ImplicitSolver
+		springStrength = val;
+		mesh.setSpringStrength(val);
+		wake();
+	}
+	public float getSpringStrength() { return springStrength; }
+	/**
+	 * Sets the integrator of the spring solver.
+	 * <p>If the cloth runs on another engine, it is switched to a SpringSolver.</p>
+	 * <p>The Euler integrators are not stable at the default time step of 0.1: each step is then
+	 * split into as many solver steps as it takes to stay under their stable limit, which
+	 * SpringSolver.getMaxStableStep() works out from the spring strength, the particle mass and
+	 * the damping. The limits fall as the springs get stiffer, with 1/sqrt(strength) for
+	 * symplectic Euler and 1/strength for modified Euler. The cloth moves at the same speed, but
+	 * modified Euler then costs more than Runge-Kutta, and many times more with stiff springs.</p>
+	 * 
+	 * @param integrator SpringSolver.RUNGE_KUTTA, SpringSolver.MODIFIED_EULER or SpringSolver.SYMPLECTIC_EULER
+	 */
+	public synchronized void setIntegrator(int integrator) {
+		if (solver instanceof SpringSolver) ((SpringSolver)solver).setIntegrator(integrator);
+		else setSolver(new SpringSolver(integrator));
+	}
+
+	/**
+	 * Gets the integrator of the spring solver.
+	 * 
+	 * @return the integrator, or -1 if the cloth does not run on a SpringSolver
+	 */
+	public int getIntegrator() {
+		if (solver instanceof SpringSolver) return ((SpringSolver)solver).getIntegrator();
+		return -1;
+	}
+
+	public synchronized void setSolver(ClothSolver val) { 
+		solver = val; 
+		wake();
+	}
+	public ClothSolver getSolver() { return solver; }
+
+	public void setTimeBased(boolean val) { 
+		timeBased = val; 
+		lastStepTime = -1;
+		accumulator = 0;
+		hasPrevious = false;
 	}
+	public boolean getTimeBased() { return timeBased; }
+	public void setTimeStep(float val) { timeStep = val; }
+	public float getTimeStep() { return timeStep; }
+	public void setPhysicsRate(float val) { physicsRate = val; }
+	public float getPhysicsRate() { return physicsRate; }
+	public void setMaxSubsteps(int val) { maxSubsteps = Math.max(1, val); }
+	public int getMaxSubsteps() { return maxSubsteps; }
+	public int getSubsteps() { return substeps; }
 
-	public void setGravity(float g) { physics.setGravity(g); }
+	public boolean isAsleep() { return asleep; }
+	public void setSleepSpeed(float val) { sleepSpeed = val; }  // 0 disables rest detection
+	public float getSleepSpeed() { return sleepSpeed; }
+	public void setSleepDelay(int val) { sleepDelay = Math.max(1, val); }
+	public int getSleepDelay() { return sleepDelay; }
+	public long getStepCount() { return stepCount; }
+	public long getSleptStepCount() { return sleptStepCount; }
+	public long getSleepCount() { return sleepCount; }
+	
+	/**
+	 * Estimates the physics time saved by sleeping so far.
+	 * 
+	 * @return the number of skipped steps times the average step time (in seconds)
+	 */
+	public float getSavedTime() {
+		if (stepCount == 0) return 0;
+		return (float)(sleptStepCount*(stepTime/(double)stepCount)/1e9);
+	}
+	public float getLastStepTime() { return frameStepTime/1e6f; }  // in milliseconds
+	public float getLastDrawTime() { return frameDrawTime/1e6f; }  // in milliseconds
+	public float getLastPhysicsStepTime() { return physicsStepTime/1e6f; }  // on the physics thread, in milliseconds
+	public boolean getPhysicsThreadRunning() { return physicsThread != null; }
+
+	public int getMeshSize() { return meshSize; }
+	ClothMesh getMesh() { return mesh; }  // for the checks with the benchmarks, read it holding the lock
+
+	public void setRedrawDistance(float val) { redrawDistance = val; }  // in pixels, 0 redraws on any movement
+	public float getRedrawDistance() { return redrawDistance; }
+	public void setRedrawFrames(int val) { redrawFrames = Math.max(1, val); }  // the number of buffers the screen flips between
+	public int getRedrawFrames() { return redrawFrames; }
+	public long getDrawnFrameCount() { return drawnFrameCount; }
+	public long getSkippedFrameCount() { return skippedFrameCount; }
+
+	/**
+	 * Sets the part of the screen the cloth is culled against.
+	 * <p>By default, this is the whole sketch window. A sketch drawing the cloth into an
+	 * offscreen buffer sets it to the bounds of that buffer.</p>
+	 *
+	 * @param left the left edge of the viewport (in pixels)
+	 * @param top the top edge of the viewport (in pixels)
+	 * @param right the right edge of the viewport (in pixels)
+	 * @param bottom the bottom edge of the viewport (in pixels)
+	 */
+	public void setViewport(float left, float top, float right, float bottom) {
+		viewportLeft = left;
+		viewportTop = top;
+		viewportRight = right;
+		viewportBottom = bottom;
+		viewportSet = true;
+		invalidate();
+	}
+	public void clearViewport() { viewportSet = false; invalidate(); }  // back to the sketch window
+	public void setCulling(boolean val) { culling = val; invalidate(); }  // turn it off when drawing under a transformed camera
+	public boolean getCulling() { return culling; }
+	public boolean[] getVisibleBands() { return visibleBands; }  // by band of the grid handed to the renderer
+	public int getCulledBandCount() { return culledBandCount; }
+
+	public PImage getMappedImage() { return mappedImage; }
+
+	/**
+	 * Maps the frames coming through a FrameExchange.
+	 * <p>The cloth maps the image of the exchange and switches it to the last complete frame at
+	 * the start of needsRedraw() and draw().</p>
+	 * 
+	 * @param val the exchange the frames are published to, or null to stop taking frames
+	 */
+	public void setFrameExchange(FrameExchange val) {
+		frameExchange = val;
+		if (val != null) mappedImage = val.getImage();
+		invalidate();
+	}
+	public FrameExchange getFrameExchange() { return frameExchange; }
+	public long getIdenticalFrameCount() { return (frameExchange == null) ? 0 : frameExchange.getIdenticalCount(); }  // frames with no tile changed, not uploaded
 
-	public void setDrawHandles(boolean val) { drawHandles = val; }
+	/**
+	 * Maps the frames of a FrameSource.
+	 * <p>The previous source, if any, is stopped, and the new one is started, publishing to a
+	 * FrameExchange of its own the cloth takes its frames from.</p>
+	 * 
+	 * @param val the source of the mapped frames, or null to stop the current one
+	 */
+	public void setFrameSource(FrameSource val) {
+		if (frameSource != null) frameSource.stop();
+		frameSource = val;
+		if (val == null) return;
+
+		FrameExchange frames = new FrameExchange(p, val.getWidth(), val.getHeight());
+		setFrameExchange(frames);
+		val.start(frames);
+	}
+	public FrameSource getFrameSource() { return frameSource; }
+	public int getForegroundColour() { return foregroundColour; }
+	public float getSampleWidth() { return sampleW; }  // texture pixels between mesh columns
+	public float getSampleHeight() { return sampleH; }  // texture pixels between mesh rows
+	public float getTextureWidth() { return (meshSize-1)*sampleW; }  // texture pixels covered by the mesh
+	public float getTextureHeight() { return (meshSize-1)*sampleH; }
+	public float[] getTextureU() { return uvTable.u; }  // normalized, by column of the grid handed to the renderer
+	public float[] getTextureV() { return uvTable.v; }  // normalized, by row of the grid handed to the renderer
+	public int getTextureVersion() { return uvTable.version; }  // changes whenever the texture coordinates do
+
+	/**
+	 * Sets how finely the cloth is drawn.
+	 * <p>With more than one subdivision, a smooth surface through the particles is drawn
+	 * instead of the mesh itself, so a coarse mesh does not show its facets when it folds.</p>
+	 * 
+	 * @param val the number of quads drawn per mesh cell side, 1 draws the mesh as it is
+	 */
+	public void setSubdivisions(int val) {
+		if (val <= 1) surface = null;
+		else if (surface == null) surface = new SubdividedSurface(val);
+		else surface.setSubdivisions(val);
+		invalidate();
+	}
+	public int getSubdivisions() { return (surface == null) ? 1 : surface.getSubdivisions(); }
+	public void setRenderer(ClothRenderer val) { renderer = val; invalidate(); }  // see the ClothRenderer implementations
+	public ClothRenderer getRenderer() { return renderer; }
+
+	public void setDrawHandles(boolean val) { drawHandles = val; invalidate(); }
 	public boolean getDrawHandles() { return drawHandles; }
-	public void setDrawOutlines(boolean val) { drawOutlines = val; }
+	public void setDrawOutlines(boolean val) { drawOutlines = val; invalidate(); }
 	public boolean getDrawOutlines() { return drawOutlines; }
-	public void setDrawMesh(boolean val) { drawMesh = val; }
+	public void setDrawMesh(boolean val) { drawMesh = val; invalidate(); }
 	public boolean getDrawMesh() { return drawMesh; }
+
+	/**
+	 * Turns the trail mode on or off.
+	 * <p>In the trail mode, the cloth is drawn over the previous frames, which fade out with a
+	 * half life of trailHalfLife seconds. The fading is done by the renderer, in offscreen buffers
+	 * of its own with the OpenGL renderers.</p>
+	 * 
+	 * @param val true to leave a trail
+	 */
+	public void setTrail(boolean val) {
+		if (val == trail) return;
+		trail = val;
+		lastTrailTime = -1;
+		invalidate();
+	}
+	public boolean getTrail() { return trail; }
+	public void setTrailHalfLife(float val) { trailHalfLife = val; }  // in seconds, 0 keeps nothing
+	public float getTrailHalfLife() { return trailHalfLife; }
 }
@@ -0,0 +1,84 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Plays back a sequence of image files, looping at the end.
+ * <p>Each image is loaded with loadImage() on the thread of the source, when its turn comes,
+ * so a long sequence does not need to fit in memory; a sequence the disk cannot decode in time
+ * drops frames. Images of another size than the first are published at their own size.</p>
+ */
+/* $Id$ */
+public class ImageSequenceSource implements FrameSource {
+	private PApplet p;
+	private String[] paths;
+	private int width;
+	private int height;
+	private float frameRate;
+	private int frame;
+
+	private FrameScaler scaler;
+
+	private FrameThread thread;
+	private long frameCount;
+	private FrameThread.Producer producer = new FrameThread.Producer() {
+		public boolean publish(FrameExchange frames) {
+			PImage image = p.loadImage(paths[frame]);
+			frame = (frame+1) % paths.length;
+			// loadImage() has already reported a missing file
+			if (image == null) return false;
+			image.loadPixels();
+			frames.publish(image, scaler);
+			return true;
+		}
+	};
+
+	/**
+	 * Builds an ImageSequenceSource.
+	 * <p>The first image is loaded straight away, for the size of the frames.</p>
+	 *
+	 * @param p the parent PApplet
+	 * @param paths the paths of the images, in order, as loadImage() takes them
+	 * @param frameRate the number of frames per second, 0 publishes as fast as possible
+	 */
+	public ImageSequenceSource(PApplet p, String[] paths, float frameRate) {
+		this.p = p;
+		this.paths = paths;
+		this.frameRate = frameRate;
+
+		PImage first = p.loadImage(paths[0]);
+		if (first == null) throw new RuntimeException("ImageSequenceSource: could not load "+paths[0]);
+		width = first.width;
+		height = first.height;
+	}
+
+	public void start(FrameExchange frames) {
+		stop();
+		frameCount = 0;
+		thread = new FrameThread("ImageSequenceSource", frames, frameRate, producer);
+		thread.start();
+	}
+
+	public void stop() {
+		if (thread == null) return;
+		thread.finish();
+		frameCount = thread.frameCount;
+		thread = null;
+	}
+
+	/**
+	 * Scales the frames before they are published.
+	 * <p>Set this before the source is started, the published frames then have the size of the
+	 * scaler.</p>
+	 *
+	 * @param val the scaler, or null to publish the frames as they are
+	 */
+	public void setScaler(FrameScaler val) { scaler = val; }
+	public FrameScaler getScaler() { return scaler; }
+
+	public int getWidth() { return (scaler == null) ? width : scaler.getWidth(); }
+	public int getHeight() { return (scaler == null) ? height : scaler.getHeight(); }
+	public long getFrameCount() { return (thread == null) ? frameCount : thread.frameCount; }
+	public int getFrames() { return paths.length; }
+	public float getFrameRate() { return frameRate; }
+}
@@ -0,0 +1,140 @@
+package facecloth;
+
+import java.nio.*;
+import javax.media.opengl.*;
+import processing.core.*;
+
+/**
+ * An OpenGL texture holding a copy of a PImage, for the renderers that draw with raw OpenGL.
+ * <p>The ARGB pixels of Processing go up as they are, read as BGRA packed in an int, and the
+ * texture is only refreshed when the image is marked as modified. For the image of a
+ * FrameExchange, only the tiles whose hashes differ from the ones last uploaded go up, one
+ * sub-image per run of changed tiles in a row of tiles.</p>
+ */
+/* $Id$ */
+class ImageTexture {
+	private int[] texture = new int[1];
+	private IntBuffer pixels;
+	private int width = -1;
+	private int height = -1;
+
+	// the tile hashes of the frame last uploaded, null after a full upload of another image
+	private int[] uploadedHashes;
+
+	/**
+	 * Uploads the image if it changed, reallocating the texture if its size changed.
+	 *
+	 * @param gl the current OpenGL context
+	 * @param image the image to upload
+	 */
+	void update(GL gl, PImage image) {
+		update(gl, image, null);
+	}
+
+	/**
+	 * Uploads the tiles of the image that changed, reallocating the texture if its size changed.
+	 *
+	 * @param gl the current OpenGL context
+	 * @param image the image to upload
+	 * @param frames the exchange the image comes from, or null to upload it whole
+	 */
+	void update(GL gl, PImage image, FrameExchange frames) {
+		if (image.width != width || image.height != height) {
+			width = image.width;
+			height = image.height;
+			pixels = ByteBuffer.allocateDirect(width*height*4).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+			if (texture[0] == 0) gl.glGenTextures(1, texture, 0);
+			gl.glBindTexture(GL.GL_TEXTURE_2D, texture[0]);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGB, width, height, 0, GL.GL_BGRA, GL.GL_UNSIGNED_INT_8_8_8_8_REV, null);
+			gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+			// make sure the first frame gets uploaded
+			image.setModified(true);
+			uploadedHashes = null;
+		}
+
+		if (!image.isModified() || image.pixels == null) return;
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, texture[0]);
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+		if (frames == null || frames.getImage() != image) {
+			upload(gl, image, 0, 0, width, height);
+			uploadedHashes = null;
+		} else {
+			uploadTiles(gl, image, frames);
+		}
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		image.setModified(false);
+	}
+
+	/**
+	 * Uploads the runs of tiles whose hashes changed since the last upload.
+	 */
+	private void uploadTiles(GL gl, PImage image, FrameExchange frames) {
+		int[] hashes = frames.getTileHashes();
+		int tilesX = frames.getTilesX();
+		int tilesY = frames.getTilesY();
+		int tile = FrameExchange.TILE_SIZE;
+
+		if (uploadedHashes == null || uploadedHashes.length != hashes.length) {
+			upload(gl, image, 0, 0, width, height);
+			uploadedHashes = hashes.clone();
+			return;
+		}
+
+		for (int ty=0; ty < tilesY; ty++) {
+			for (int tx=0; tx < tilesX; tx++) {
+				int t = ty*tilesX+tx;
+				if (hashes[t] == uploadedHashes[t]) continue;
+				// extend the run over the changed tiles that follow
+				int last = tx;
+				while (last+1 < tilesX && hashes[t+last+1-tx] != uploadedHashes[t+last+1-tx]) last++;
+
+				int x = tx*tile;
+				int y = ty*tile;
+				upload(gl, image, x, y, Math.min(width, (last+1)*tile)-x, Math.min(height, y+tile)-y);
+				tx = last;
+			}
+		}
+		System.arraycopy(hashes, 0, uploadedHashes, 0, hashes.length);
+	}
+
+	/**
+	 * Uploads a rectangle of the image, copying only its rows into the pixel buffer.
+	 * <p>The texture must be bound.</p>
+	 */
+	private void upload(GL gl, PImage image, int x, int y, int w, int h) {
+		for (int row=y; row < y+h; row++) {
+			pixels.position(row*width+x);
+			pixels.put(image.pixels, row*width+x, w);
+		}
+		pixels.rewind();
+
+		// read the rectangle out of the whole image in the buffer
+		gl.glPixelStorei(GL.GL_UNPACK_ROW_LENGTH, width);
+		gl.glPixelStorei(GL.GL_UNPACK_SKIP_PIXELS, x);
+		gl.glPixelStorei(GL.GL_UNPACK_SKIP_ROWS, y);
+		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, x, y, w, h, GL.GL_BGRA, GL.GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+		gl.glPixelStorei(GL.GL_UNPACK_ROW_LENGTH, 0);
+		gl.glPixelStorei(GL.GL_UNPACK_SKIP_PIXELS, 0);
+		gl.glPixelStorei(GL.GL_UNPACK_SKIP_ROWS, 0);
+	}
+
+	/**
+	 * Releases the texture.
+	 *
+	 * @param gl the current OpenGL context
+	 */
+	void dispose(GL gl) {
+		if (texture[0] != 0) gl.glDeleteTextures(1, texture, 0);
+		texture[0] = 0;
+		width = height = -1;
+	}
+
+	int getName() { return texture[0]; }
+}
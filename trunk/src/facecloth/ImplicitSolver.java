@@ -0,0 +1,330 @@
+package facecloth;
+
+/**
+ * A backward Euler mass-spring solver for stiff cloth.
+ * <p>Each step linearises the forces around the current state and solves
+ * (M - h*df/dv - h^2*df/dx) dv = h*(f + h*df/dx*v) for the velocity change dv with a
+ * conjugate gradient, preconditioned by the inverse 3x3 diagonal blocks. The force model is the
+ * one of the SpringSolver, but the step stays stable for any spring strength and time step, so
+ * a stiff cloth can be advanced with one large step per frame.</p>
+ * <p>The system matrix is stored as one symmetric 3x3 block per particle and one per spring. The
+ * springs give the sparsity pattern, so the blocks are refilled in place every step and only
+ * reallocated when the mesh grows. Fixed particles are kept out of the solve by zeroing their
+ * rows. The previous solution is used as the starting guess.</p>
+ */
+/* $Id$ */
+public class ImplicitSolver implements ClothSolver {
+	public static final int DEFAULT_MAX_ITERATIONS = 50;
+	public static final float DEFAULT_TOLERANCE = (float)1e-4;
+
+	private int maxIterations;
+	private float tolerance;
+	private int iterations;
+
+	// diagonal blocks and their inverses, one per particle
+	private float[] dXX, dXY, dXZ, dYY, dYZ, dZZ;
+	private float[] iXX, iXY, iXZ, iYY, iYZ, iZZ;
+
+	// off-diagonal blocks, one per spring (the matrix holds -S for both end points)
+	private float[] sXX, sXY, sXZ, sYY, sYZ, sZZ;
+
+	// solver vectors
+	private float[] dvX, dvY, dvZ;
+	private float[] bX, bY, bZ;
+	private float[] rX, rY, rZ;
+	private float[] zX, zY, zZ;
+	private float[] pX, pY, pZ;
+	private float[] qX, qY, qZ;
+
+	/**
+	 * Builds an ImplicitSolver with the default iteration limit and tolerance.
+	 */
+	public ImplicitSolver() {
+		this(DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * Builds an ImplicitSolver.
+	 *
+	 * @param maxIterations the maximum number of conjugate gradient iterations per step
+	 * @param tolerance the residual, relative to the right-hand side, at which to stop iterating
+	 */
+	public ImplicitSolver(int maxIterations, float tolerance) {
+		setMaxIterations(maxIterations);
+		setTolerance(tolerance);
+		allocateParticles(0);
+		allocateSprings(0);
+	}
+
+	/**
+	 * Advances the mesh by one backward Euler step.
+	 *
+	 * @param mesh the mesh to update
+	 * @param h the length of the time step
+	 */
+	public void step(ClothMesh mesh, float h) {
+		if (dXX.length < mesh.count) allocateParticles(mesh.count);
+		if (sXX.length < mesh.springCount) allocateSprings(mesh.springCount);
+
+		assemble(mesh, h);
+		iterations = solve(mesh);
+
+		// commit the new velocities and move the particles with them
+		boolean[] fixed = mesh.fixed;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		for (int k=0; k < mesh.count; k++) {
+			if (fixed[k]) continue;
+			vx[k] += dvX[k];
+			vy[k] += dvY[k];
+			vz[k] += dvZ[k];
+			x[k] += vx[k]*h;
+			y[k] += vy[k]*h;
+			z[k] += vz[k]*h;
+		}
+	}
+
+	/**
+	 * Fills the matrix blocks and the right-hand side for the current state.
+	 */
+	private void assemble(ClothMesh mesh, float h) {
+		int n = mesh.count;
+		float g = mesh.gravity;
+		float d = mesh.drag;
+		boolean[] fixed = mesh.fixed;
+		float[] mass = mesh.mass;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+
+		// mass, drag, gravity
+		for (int k=0; k < n; k++) {
+			float m = mass[k] + h*d;
+			dXX[k] = m; dXY[k] = 0; dXZ[k] = 0;
+			dYY[k] = m; dYZ[k] = 0;
+			dZZ[k] = m;
+			bX[k] = h*(vx[k]*-d);
+			bY[k] = h*(g + vy[k]*-d);
+			bZ[k] = h*(vz[k]*-d);
+		}
+
+		// springs
+		int[] springA = mesh.springA;
+		int[] springB = mesh.springB;
+		float[] rest = mesh.springRest;
+		float[] strength = mesh.springStrength;
+		float[] damping = mesh.springDamping;
+		for (int s=0; s < mesh.springCount; s++) {
+			int a = springA[s];
+			int b = springB[s];
+			if (fixed[a] && fixed[b]) {
+				sXX[s] = sXY[s] = sXZ[s] = sYY[s] = sYZ[s] = sZZ[s] = 0;
+				continue;
+			}
+
+			float eX = x[a]-x[b];
+			float eY = y[a]-y[b];
+			float eZ = z[a]-z[b];
+			float l = (float)Math.sqrt(eX*eX + eY*eY + eZ*eZ);
+			float uX = 0, uY = 0, uZ = 0;
+			if (l > 0) {
+				uX = eX/l;
+				uY = eY/l;
+				uZ = eZ/l;
+			}
+			float wX = vx[a]-vx[b];
+			float wY = vy[a]-vy[b];
+			float wZ = vz[a]-vz[b];
+
+			// the force on a, as in the SpringSolver
+			float f = -(l-rest[s])*strength[s] - damping[s]*(uX*wX + uY*wY + uZ*wZ);
+			float fX = uX*f, fY = uY*f, fZ = uZ*f;
+
+			// -df_a/dx_a = ks*(uu' + c*(I-uu')), with c clamped so that compressed springs stay definite
+			float c = (l > 0) ? Math.max(0, 1-rest[s]/l) : 0;
+			float ks = strength[s];
+			float kXX = ks*(uX*uX + c*(1-uX*uX)), kXY = ks*(uX*uY - c*uX*uY), kXZ = ks*(uX*uZ - c*uX*uZ);
+			float kYY = ks*(uY*uY + c*(1-uY*uY)), kYZ = ks*(uY*uZ - c*uY*uZ);
+			float kZZ = ks*(uZ*uZ + c*(1-uZ*uZ));
+
+			// b += h*(f + h*df/dx*v), with df_a/dx*v = -K*(v_a-v_b)
+			float hKwX = h*(kXX*wX + kXY*wY + kXZ*wZ);
+			float hKwY = h*(kXY*wX + kYY*wY + kYZ*wZ);
+			float hKwZ = h*(kXZ*wX + kYZ*wY + kZZ*wZ);
+			float rhsX = h*(fX - hKwX), rhsY = h*(fY - hKwY), rhsZ = h*(fZ - hKwZ);
+			bX[a] += rhsX; bY[a] += rhsY; bZ[a] += rhsZ;
+			bX[b] -= rhsX; bY[b] -= rhsY; bZ[b] -= rhsZ;
+
+			// S = h*kd*uu' + h^2*K goes on both diagonal blocks and, negated, off the diagonal
+			float hd = h*damping[s];
+			float hh = h*h;
+			sXX[s] = hd*uX*uX + hh*kXX;
+			sXY[s] = hd*uX*uY + hh*kXY;
+			sXZ[s] = hd*uX*uZ + hh*kXZ;
+			sYY[s] = hd*uY*uY + hh*kYY;
+			sYZ[s] = hd*uY*uZ + hh*kYZ;
+			sZZ[s] = hd*uZ*uZ + hh*kZZ;
+
+			dXX[a] += sXX[s]; dXY[a] += sXY[s]; dXZ[a] += sXZ[s]; dYY[a] += sYY[s]; dYZ[a] += sYZ[s]; dZZ[a] += sZZ[s];
+			dXX[b] += sXX[s]; dXY[b] += sXY[s]; dXZ[b] += sXZ[s]; dYY[b] += sYY[s]; dYZ[b] += sYZ[s]; dZZ[b] += sZZ[s];
+		}
+
+		// invert the diagonal blocks for the preconditioner, and keep fixed particles out of the solve
+		for (int k=0; k < n; k++) {
+			if (fixed[k]) {
+				bX[k] = bY[k] = bZ[k] = 0;
+				dvX[k] = dvY[k] = dvZ[k] = 0;
+				iXX[k] = iXY[k] = iXZ[k] = iYY[k] = iYZ[k] = iZZ[k] = 0;
+				continue;
+			}
+
+			float cXX = dYY[k]*dZZ[k] - dYZ[k]*dYZ[k];
+			float cXY = dXZ[k]*dYZ[k] - dXY[k]*dZZ[k];
+			float cXZ = dXY[k]*dYZ[k] - dXZ[k]*dYY[k];
+			float det = dXX[k]*cXX + dXY[k]*cXY + dXZ[k]*cXZ;
+			if (det == 0) {
+				iXX[k] = iYY[k] = iZZ[k] = 1;
+				iXY[k] = iXZ[k] = iYZ[k] = 0;
+				continue;
+			}
+			float inv = 1/det;
+			iXX[k] = cXX*inv;
+			iXY[k] = cXY*inv;
+			iXZ[k] = cXZ*inv;
+			iYY[k] = (dXX[k]*dZZ[k] - dXZ[k]*dXZ[k])*inv;
+			iYZ[k] = (dXY[k]*dXZ[k] - dXX[k]*dYZ[k])*inv;
+			iZZ[k] = (dXX[k]*dYY[k] - dXY[k]*dXY[k])*inv;
+		}
+	}
+
+	/**
+	 * Solves the assembled system for dv with a preconditioned conjugate gradient.
+	 *
+	 * @return the number of iterations run
+	 */
+	private int solve(ClothMesh mesh) {
+		int n = mesh.count;
+
+		// r = b - A*dv, z = P*r, p = z
+		multiply(mesh, dvX, dvY, dvZ, qX, qY, qZ);
+		double bb = 0;
+		for (int k=0; k < n; k++) {
+			rX[k] = bX[k]-qX[k];
+			rY[k] = bY[k]-qY[k];
+			rZ[k] = bZ[k]-qZ[k];
+			bb += bX[k]*bX[k] + bY[k]*bY[k] + bZ[k]*bZ[k];
+		}
+		double rz = precondition(n);
+		System.arraycopy(zX, 0, pX, 0, n);
+		System.arraycopy(zY, 0, pY, 0, n);
+		System.arraycopy(zZ, 0, pZ, 0, n);
+
+		double limit = (double)tolerance*tolerance*bb;
+		int it = 0;
+		while (it < maxIterations) {
+			multiply(mesh, pX, pY, pZ, qX, qY, qZ);
+			double pq = 0;
+			for (int k=0; k < n; k++) {
+				pq += pX[k]*qX[k] + pY[k]*qY[k] + pZ[k]*qZ[k];
+			}
+			if (pq <= 0) break;
+
+			float alpha = (float)(rz/pq);
+			double rr = 0;
+			for (int k=0; k < n; k++) {
+				dvX[k] += alpha*pX[k];
+				dvY[k] += alpha*pY[k];
+				dvZ[k] += alpha*pZ[k];
+				rX[k] -= alpha*qX[k];
+				rY[k] -= alpha*qY[k];
+				rZ[k] -= alpha*qZ[k];
+				rr += rX[k]*rX[k] + rY[k]*rY[k] + rZ[k]*rZ[k];
+			}
+			it++;
+			if (rr <= limit) break;
+
+			double rzNew = precondition(n);
+			float beta = (float)(rzNew/rz);
+			rz = rzNew;
+			for (int k=0; k < n; k++) {
+				pX[k] = zX[k] + beta*pX[k];
+				pY[k] = zY[k] + beta*pY[k];
+				pZ[k] = zZ[k] + beta*pZ[k];
+			}
+		}
+
+		return it;
+	}
+
+	/**
+	 * Computes z = P*r with the inverse diagonal blocks.
+	 *
+	 * @return the dot product of r and z
+	 */
+	private double precondition(int n) {
+		double rz = 0;
+		for (int k=0; k < n; k++) {
+			zX[k] = iXX[k]*rX[k] + iXY[k]*rY[k] + iXZ[k]*rZ[k];
+			zY[k] = iXY[k]*rX[k] + iYY[k]*rY[k] + iYZ[k]*rZ[k];
+			zZ[k] = iXZ[k]*rX[k] + iYZ[k]*rY[k] + iZZ[k]*rZ[k];
+			rz += rX[k]*zX[k] + rY[k]*zY[k] + rZ[k]*zZ[k];
+		}
+		return rz;
+	}
+
+	/**
+	 * Computes out = A*in, with the rows of fixed particles zeroed.
+	 */
+	private void multiply(ClothMesh mesh, float[] inX, float[] inY, float[] inZ, float[] outX, float[] outY, float[] outZ) {
+		boolean[] fixed = mesh.fixed;
+
+		for (int k=0; k < mesh.count; k++) {
+			outX[k] = dXX[k]*inX[k] + dXY[k]*inY[k] + dXZ[k]*inZ[k];
+			outY[k] = dXY[k]*inX[k] + dYY[k]*inY[k] + dYZ[k]*inZ[k];
+			outZ[k] = dXZ[k]*inX[k] + dYZ[k]*inY[k] + dZZ[k]*inZ[k];
+		}
+
+		int[] springA = mesh.springA;
+		int[] springB = mesh.springB;
+		for (int s=0; s < mesh.springCount; s++) {
+			int a = springA[s];
+			int b = springB[s];
+			outX[a] -= sXX[s]*inX[b] + sXY[s]*inY[b] + sXZ[s]*inZ[b];
+			outY[a] -= sXY[s]*inX[b] + sYY[s]*inY[b] + sYZ[s]*inZ[b];
+			outZ[a] -= sXZ[s]*inX[b] + sYZ[s]*inY[b] + sZZ[s]*inZ[b];
+			outX[b] -= sXX[s]*inX[a] + sXY[s]*inY[a] + sXZ[s]*inZ[a];
+			outY[b] -= sXY[s]*inX[a] + sYY[s]*inY[a] + sYZ[s]*inZ[a];
+			outZ[b] -= sXZ[s]*inX[a] + sYZ[s]*inY[a] + sZZ[s]*inZ[a];
+		}
+
+		for (int k=0; k < mesh.count; k++) {
+			if (fixed[k]) outX[k] = outY[k] = outZ[k] = 0;
+		}
+	}
+
+	/**
+	 * Allocates the per-particle arrays.
+	 */
+	private void allocateParticles(int n) {
+		dXX = new float[n]; dXY = new float[n]; dXZ = new float[n]; dYY = new float[n]; dYZ = new float[n]; dZZ = new float[n];
+		iXX = new float[n]; iXY = new float[n]; iXZ = new float[n]; iYY = new float[n]; iYZ = new float[n]; iZZ = new float[n];
+		dvX = new float[n]; dvY = new float[n]; dvZ = new float[n];
+		bX = new float[n]; bY = new float[n]; bZ = new float[n];
+		rX = new float[n]; rY = new float[n]; rZ = new float[n];
+		zX = new float[n]; zY = new float[n]; zZ = new float[n];
+		pX = new float[n]; pY = new float[n]; pZ = new float[n];
+		qX = new float[n]; qY = new float[n]; qZ = new float[n];
+	}
+
+	/**
+	 * Allocates the per-spring arrays.
+	 */
+	private void allocateSprings(int n) {
+		sXX = new float[n]; sXY = new float[n]; sXZ = new float[n]; sYY = new float[n]; sYZ = new float[n]; sZZ = new float[n];
+	}
+
+	public void setMaxIterations(int val) { maxIterations = Math.max(1, val); }
+	public int getMaxIterations() { return maxIterations; }
+	public void setTolerance(float val) { tolerance = val; }
+	public float getTolerance() { return tolerance; }
+	public int getIterations() { return iterations; }
+}
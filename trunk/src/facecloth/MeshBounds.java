@@ -0,0 +1,104 @@
+package facecloth;
+
+/**
+ * The bounding boxes of the columns of a grid of points.
+ * <p>Column i holds the points i*size to i*size+size-1, laid out like the ClothMesh arrays.
+ * The boxes of neighbouring columns bound the bands of quads between them, which is what
+ * ImageCloth culls against the viewport.</p>
+ */
+/* $Id$ */
+class MeshBounds {
+	int size;
+	float[] minX, maxX, minY, maxY, minZ, maxZ;
+
+	// false until the boxes have been measured
+	boolean valid;
+
+	/**
+	 * Builds a MeshBounds.
+	 *
+	 * @param size the number of columns
+	 */
+	MeshBounds(int size) {
+		allocate(size);
+	}
+
+	/**
+	 * Sets the number of columns, invalidating the boxes if it changes.
+	 *
+	 * @param size the number of columns
+	 */
+	void allocate(int size) {
+		if (minX != null && size == this.size) return;
+		this.size = size;
+		minX = new float[size];
+		maxX = new float[size];
+		minY = new float[size];
+		maxY = new float[size];
+		minZ = new float[size];
+		maxZ = new float[size];
+		valid = false;
+	}
+
+	/**
+	 * Copies the boxes of another MeshBounds.
+	 *
+	 * @param source the boxes to copy
+	 */
+	void copy(MeshBounds source) {
+		allocate(source.size);
+		System.arraycopy(source.minX, 0, minX, 0, size);
+		System.arraycopy(source.maxX, 0, maxX, 0, size);
+		System.arraycopy(source.minY, 0, minY, 0, size);
+		System.arraycopy(source.maxY, 0, maxY, 0, size);
+		System.arraycopy(source.minZ, 0, minZ, 0, size);
+		System.arraycopy(source.maxZ, 0, maxZ, 0, size);
+		valid = source.valid;
+	}
+
+	/**
+	 * Empties the box of a column.
+	 *
+	 * @param i the column
+	 */
+	final void reset(int i) {
+		minX[i] = minY[i] = minZ[i] = Float.POSITIVE_INFINITY;
+		maxX[i] = maxY[i] = maxZ[i] = Float.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Grows the box of a column to hold a point.
+	 *
+	 * @param i the column
+	 * @param x the x-coordinate of the point
+	 * @param y the y-coordinate of the point
+	 * @param z the z-coordinate of the point
+	 */
+	final void include(int i, float x, float y, float z) {
+		if (x < minX[i]) minX[i] = x;
+		if (x > maxX[i]) maxX[i] = x;
+		if (y < minY[i]) minY[i] = y;
+		if (y > maxY[i]) maxY[i] = y;
+		if (z < minZ[i]) minZ[i] = z;
+		if (z > maxZ[i]) maxZ[i] = z;
+	}
+
+	/**
+	 * Measures every column of a grid.
+	 *
+	 * @param x the x-coordinates of the grid points
+	 * @param y the y-coordinates of the grid points
+	 * @param z the z-coordinates of the grid points
+	 * @param size the number of rows and columns in the grid
+	 */
+	void measure(float[] x, float[] y, float[] z, int size) {
+		allocate(size);
+		for (int i=0; i < size; i++) {
+			reset(i);
+			for (int k=i*size; k < (i+1)*size; k++) {
+				include(i, x[k], y[k], z[k]);
+			}
+		}
+		valid = true;
+	}
+}
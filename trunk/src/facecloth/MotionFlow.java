@@ -0,0 +1,257 @@
+package facecloth;
+
+/**
+ * Pushes the cloth with the motion in the video frames.
+ * <p>Between each pair of consecutive frames, the motion is estimated by block matching on a
+ * grid aligned with the cloth mesh: the block of the frame around the texture coordinates of
+ * each mesh point is searched for in the previous frame, and the displacement with the lowest
+ * sum of absolute differences is the motion at that point. Each motion vector, times the
+ * strength, is added to the velocity of its mesh point, all at once through
+ * ImageCloth.addMeshVelocities().</p>
+ * <p>The matching is done on the luma of the frames at 1/LUMA_STEP of their size. Blocks that
+ * did not change by more than the noise level stay still without being searched, so a static
+ * scene costs little more than the luma pass, and the search of a block gives up on a
+ * displacement as soon as it is worse than the best so far. Both passes are split across a
+ * SolverPool, and every buffer is reused from frame to frame.</p>
+ * <p>Set it as the Stage of the cloth's FrameExchange, it then runs on the capture thread for
+ * every frame published, including those the drawing thread drops.</p>
+ */
+/* $Id$ */
+public class MotionFlow implements FrameExchange.Stage {
+	public static final int LUMA_STEP = 2;
+	public static final int SEARCH_RADIUS = 3;
+	public static final float NOISE_LEVEL = 6;
+	public static final float STRENGTH = (float)0.5;
+
+	private ImageCloth cloth;
+	private SolverPool pool;
+	private int searchRadius = SEARCH_RADIUS;
+	private float noiseLevel = NOISE_LEVEL;
+	private float strength = STRENGTH;
+
+	// luma of the current and previous frames, lumaW by lumaH
+	private int[] luma = new int[0];
+	private int[] previousLuma = new int[0];
+	private int lumaW;
+	private int lumaH;
+	private int frameW = -1;
+	private int frameH = -1;
+	private boolean hasPrevious;
+
+	// the blocks, centred on the mesh points, in luma pixels
+	private int size = -1;
+	private float textureW = -1;
+	private float textureH = -1;
+	private int[] centreX = new int[0];
+	private int[] centreY = new int[0];
+	private int halfW;
+	private int halfH;
+
+	// the velocities to add, indexed like the mesh
+	private float[] impulseX = new float[0];
+	private float[] impulseY = new float[0];
+	private int[] movingColumn = new int[0];
+
+	// statistics
+	private volatile int movingCount;
+	private volatile long flowTime;
+
+	// the frame being processed
+	private int[] pixels;
+	private SolverPool.Range lumaTask = new SolverPool.Range() {
+		public void run(int from, int to) {
+			lumaRows(from, to);
+		}
+	};
+	private SolverPool.Range searchTask = new SolverPool.Range() {
+		public void run(int from, int to) {
+			for (int i=from; i < to; i++) {
+				searchColumn(i);
+			}
+		}
+	};
+
+	/**
+	 * Builds a single-threaded MotionFlow.
+	 *
+	 * @param cloth the cloth to push
+	 */
+	public MotionFlow(ImageCloth cloth) {
+		this(cloth, null);
+	}
+
+	/**
+	 * Builds a MotionFlow.
+	 *
+	 * @param cloth the cloth to push
+	 * @param pool the worker pool to run on, or null to run on the calling thread. It may be
+	 *        shared with the FrameScaler of the same source, which runs on the same thread.
+	 */
+	public MotionFlow(ImageCloth cloth, SolverPool pool) {
+		this.cloth = cloth;
+		this.pool = pool;
+	}
+
+	public void process(int[] pixels, int width, int height) {
+		long start = System.nanoTime();
+		allocate(width, height, cloth.getMeshSize(), cloth.getTextureWidth(), cloth.getTextureHeight());
+
+		int[] swap = previousLuma;
+		previousLuma = luma;
+		luma = swap;
+		this.pixels = pixels;
+		if (pool == null) lumaTask.run(0, lumaH);
+		else pool.run(0, lumaH, 8, lumaTask);
+		this.pixels = null;
+
+		if (!hasPrevious) {
+			hasPrevious = true;
+			return;
+		}
+
+		if (pool == null) searchTask.run(0, size);
+		else pool.run(0, size, 1, searchTask);
+
+		int moving = 0;
+		for (int i=0; i < size; i++) {
+			moving += movingColumn[i];
+		}
+		movingCount = moving;
+		// the cloth may have been resized since, it then refuses the velocities
+		if (moving > 0) cloth.addMeshVelocities(impulseX, impulseY, null, size);
+		flowTime = System.nanoTime()-start;
+	}
+
+	/**
+	 * Resizes the buffers and places the blocks, if the frame or the mesh changed.
+	 */
+	private void allocate(int width, int height, int size, float textureW, float textureH) {
+		if (width != frameW || height != frameH) {
+			frameW = width;
+			frameH = height;
+			lumaW = width/LUMA_STEP;
+			lumaH = height/LUMA_STEP;
+			luma = new int[lumaW*lumaH];
+			previousLuma = new int[lumaW*lumaH];
+			hasPrevious = false;
+			// place the blocks again
+			this.size = -1;
+		}
+		if (size == this.size && textureW == this.textureW && textureH == this.textureH) return;
+
+		this.size = size;
+		this.textureW = textureW;
+		this.textureH = textureH;
+		if (centreX.length != size) {
+			centreX = new int[size];
+			centreY = new int[size];
+			impulseX = new float[size*size];
+			impulseY = new float[size*size];
+			movingColumn = new int[size];
+		}
+		// mesh point i, j maps the frame at i*textureW/(size-1), j*textureH/(size-1), like the UV table
+		float stepX = textureW/(size-1)/LUMA_STEP;
+		float stepY = textureH/(size-1)/LUMA_STEP;
+		for (int n=0; n < size; n++) {
+			centreX[n] = Math.round(n*stepX);
+			centreY[n] = Math.round(n*stepY);
+		}
+		halfW = Math.max(1, (int)(stepX/2));
+		halfH = Math.max(1, (int)(stepY/2));
+	}
+
+	/**
+	 * Works out the luma of rows of the frame, averaging LUMA_STEP by LUMA_STEP pixels.
+	 */
+	private void lumaRows(int from, int to) {
+		int area = LUMA_STEP*LUMA_STEP;
+		for (int ly=from; ly < to; ly++) {
+			int out = ly*lumaW;
+			for (int lx=0; lx < lumaW; lx++) {
+				int sum = 0;
+				for (int y=ly*LUMA_STEP; y < (ly+1)*LUMA_STEP; y++) {
+					int k = y*frameW+lx*LUMA_STEP;
+					for (int x=0; x < LUMA_STEP; x++) {
+						int c = pixels[k+x];
+						sum += ((c >> 16) & 0xff)*77 + ((c >> 8) & 0xff)*150 + (c & 0xff)*29;
+					}
+				}
+				luma[out+lx] = (sum/area) >> 8;
+			}
+		}
+	}
+
+	/**
+	 * Matches the blocks of a column of mesh points and sets their velocities to add.
+	 */
+	private void searchColumn(int i) {
+		int r = searchRadius;
+		int moving = 0;
+		// keep every displaced block inside the frame
+		int x0 = Math.max(r, centreX[i]-halfW);
+		int x1 = Math.min(lumaW-r, centreX[i]+halfW);
+		for (int j=0; j < size; j++) {
+			int k = i*size+j;
+			impulseX[k] = impulseY[k] = 0;
+			int y0 = Math.max(r, centreY[j]-halfH);
+			int y1 = Math.min(lumaH-r, centreY[j]+halfH);
+			if (x1 <= x0 || y1 <= y0) continue;
+
+			// a block that changed less than the noise stays still
+			int still = sad(x0, y0, x1, y1, 0, 0, Integer.MAX_VALUE);
+			if (still <= noiseLevel*(x1-x0)*(y1-y0)) continue;
+
+			int best = still;
+			int bestX = 0;
+			int bestY = 0;
+			for (int dy=-r; dy <= r; dy++) {
+				for (int dx=-r; dx <= r; dx++) {
+					if (dx == 0 && dy == 0) continue;
+					int s = sad(x0, y0, x1, y1, dx, dy, best);
+					// ties go to the smaller displacement
+					if (s < best || (s == best && dx*dx+dy*dy < bestX*bestX+bestY*bestY)) {
+						best = s;
+						bestX = dx;
+						bestY = dy;
+					}
+				}
+			}
+			if (bestX == 0 && bestY == 0) continue;
+
+			impulseX[k] = bestX*LUMA_STEP*strength;
+			impulseY[k] = bestY*LUMA_STEP*strength;
+			moving++;
+		}
+		movingColumn[i] = moving;
+	}
+
+	/**
+	 * Sums the absolute differences between a block of the frame and the previous frame.
+	 * <p>The block is compared with the one dx, dy pixels up and left of it in the previous
+	 * frame, so dx, dy is the motion that would bring it there.</p>
+	 *
+	 * @return the sum, or any value over limit once it is known to be over
+	 */
+	private int sad(int x0, int y0, int x1, int y1, int dx, int dy, int limit) {
+		int sum = 0;
+		for (int y=y0; y < y1; y++) {
+			int k = y*lumaW;
+			int p = (y-dy)*lumaW-dx;
+			for (int x=x0; x < x1; x++) {
+				int d = luma[k+x]-previousLuma[p+x];
+				sum += (d < 0) ? -d : d;
+			}
+			if (sum > limit) return sum;
+		}
+		return sum;
+	}
+
+	public void setSearchRadius(int val) { searchRadius = Math.max(1, val); }  // in luma pixels, the fastest motion seen per frame
+	public int getSearchRadius() { return searchRadius; }
+	public void setNoiseLevel(float val) { noiseLevel = val; }  // mean luma difference per pixel a still block may have
+	public float getNoiseLevel() { return noiseLevel; }
+	public void setStrength(float val) { strength = val; }  // velocity added per pixel of motion
+	public float getStrength() { return strength; }
+	public int getMovingCount() { return movingCount; }  // mesh points pushed by the last frame
+	public float getLastFlowTime() { return flowTime/1e6f; }  // in milliseconds
+}
@@ -0,0 +1,132 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Draws the cloth in immediate mode through the PApplet drawing calls.
+ * <p>This works with every Processing renderer, but rebuilds the whole mesh every frame. The
+ * texture coordinates are read from the table the cloth keeps, in the NORMALIZED texture mode. The
+ * outlines are drawn as one closed line strip, and all the handles as one batch of triangles
+ * from the pre-tessellated HandleGlyph. The OpenGL renderers extend it for the outlines and
+ * handles.</p>
+ */
+/* $Id$ */
+public class PAppletRenderer implements ClothRenderer {
+	private PApplet p;
+	// a frame came in while every band was culled, it has not been uploaded yet
+	private boolean frameSkipped;
+
+	/**
+	 * Builds a PAppletRenderer.
+	 *
+	 * @param p the parent PApplet
+	 */
+	public PAppletRenderer(PApplet p) {
+		this.p = p;
+	}
+
+	public void drawCloth(ImageCloth cloth, float[] x, float[] y, float[] z, int meshSize) {
+		float[] u = cloth.getTextureU();
+		float[] v = cloth.getTextureV();
+		boolean[] visible = cloth.getVisibleBands();
+		PImage image = cloth.getMappedImage();
+
+		boolean anyVisible = false;
+		for (int i=0; i < meshSize-1; i++) {
+			anyVisible |= visible[i];
+		}
+		if (!anyVisible) {
+			// nothing binds the texture, so mark the frame used here or needsRedraw() keeps
+			// asking for it, and upload it once the cloth is back
+			if (image.isModified()) frameSkipped = true;
+			image.setModified(false);
+			return;
+		}
+		if (frameSkipped) {
+			image.setModified(true);
+			frameSkipped = false;
+		}
+
+		if (cloth.getDrawMesh()) p.stroke(cloth.getForegroundColour());
+		else p.noStroke(); 
+		p.fill(255);
+
+		// the table holds normalized coordinates
+		int mode = p.g.textureMode;
+		p.textureMode(PApplet.NORMALIZED);
+
+		// draw quads to make a mesh out of the particles
+		p.beginShape(PApplet.QUADS);
+		// map the video feed to the whole mesh
+		p.texture(image);
+		for (int i=0; i < meshSize-1; i++) {
+			// skip the bands that are off the screen
+			if (!visible[i]) continue;
+			for (int j=0; j < meshSize-1; j++) {
+				int k = i*meshSize+j;
+				p.vertex(x[k], y[k], z[k], u[i], v[j]);
+				p.vertex(x[k+1], y[k+1], z[k+1], u[i], v[j+1]);
+				p.vertex(x[k+meshSize+1], y[k+meshSize+1], z[k+meshSize+1], u[i+1], v[j+1]);
+				p.vertex(x[k+meshSize], y[k+meshSize], z[k+meshSize], u[i+1], v[j]);    
+			}
+		}
+		p.endShape();
+		p.textureMode(mode);
+	}
+
+	public void drawOutlines(ImageCloth cloth, float[] x, float[] y, float[] z, int size) {
+		int last = size-1;
+
+		p.stroke(cloth.getForegroundColour());
+		p.noFill();
+		// walk once around the edge of the grid as a single closed line strip
+		p.beginShape();
+		for (int i=0; i < last; i++) {
+			p.vertex(x[i*size], y[i*size]);
+		}
+		for (int j=0; j < last; j++) {
+			p.vertex(x[last*size+j], y[last*size+j]);
+		}
+		for (int i=last; i > 0; i--) {
+			p.vertex(x[i*size+last], y[i*size+last]);
+		}
+		for (int j=last; j > 0; j--) {
+			p.vertex(x[j], y[j]);
+		}
+		p.endShape(PApplet.CLOSE);
+		p.noStroke(); 
+		p.fill(255);
+	}
+
+	public void drawHandles(ImageCloth cloth, float[] x, float[] y, int[] colours) {
+		float[] t = HandleGlyph.TRIANGLES;
+
+		p.noStroke();
+		// every handle in one batch, coloured per handle
+		p.beginShape(PApplet.TRIANGLES);
+		for (int h=0; h < x.length; h++) {
+			p.fill(colours[h]);
+			for (int n=0; n < t.length; n += 2) {
+				p.vertex(x[h]+t[n], y[h]+t[n+1]);
+			}
+		}
+		p.endShape();
+		p.fill(255); 
+	}
+
+	/**
+	 * Fades the screen with a translucent black rectangle.
+	 * <p>There is no offscreen buffer here, so the sketch must not clear the screen in the trail
+	 * mode. With 8 bits per channel, a slow fade leaves a faint ghost of the old frames; the
+	 * OpenGL renderers and the SoftwareRenderer do not.</p>
+	 */
+	public void beginTrail(ImageCloth cloth, float keep) {
+		p.noStroke();
+		p.fill(0, 0, 0, 255*(1-keep));
+		p.rect(0, 0, p.width, p.height);
+		p.fill(255);
+	}
+
+	public void endTrail(ImageCloth cloth) {
+	}
+}
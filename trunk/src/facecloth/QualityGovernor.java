@@ -0,0 +1,198 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Keeps the time an ImageCloth takes per frame under a budget by trading quality for speed.
+ * <p>Call {@link #update()} once per frame, after the cloth was stepped and drawn. The governor
+ * averages the time spent in ImageCloth.step() and ImageCloth.draw(), and walks down a ladder of
+ * quality levels while the average is over the budget: first the mesh overlay goes, then the
+ * outlines, then smoothing, then the physics substeps are halved, and finally the mesh resolution
+ * is lowered step by step. It climbs back up once the average has stayed well under the budget
+ * for a while.</p>
+ * <p>Degrading needs the budget to be blown for {@link #DEGRADE_FRAMES} frames in a row, upgrading
+ * needs {@link #UPGRADE_FRAMES} frames under {@link #UPGRADE_RATIO} of the budget, and nothing
+ * changes for {@link #SETTLE_FRAMES} frames after a change, so that the governor does not flip
+ * between two levels. Every change is logged to the console.</p>
+ * <p>The substeps only matter to a time based cloth stepped from the sketch, so the
+ * FEWER_SUBSTEPS level is skipped, and left out of the ladder, while the cloth is not time based
+ * or runs its physics thread. With the physics thread, step() takes no time; the governor then
+ * measures the last physics step against the physics period instead, scaled to the budget, and
+ * governs whichever of the drawing and the physics is the more loaded.</p>
+ */
+/* $Id$ */
+public class QualityGovernor {
+	// quality levels, each one includes the ones above
+	public static final int FULL = 0;
+	public static final int NO_MESH = 1;
+	public static final int NO_OUTLINES = 2;
+	public static final int NO_SMOOTH = 3;
+	public static final int FEWER_SUBSTEPS = 4;
+	public static final int SMALLER_MESH = 5;  // and up, one mesh reduction per level
+
+	public static final int DEGRADE_FRAMES = 30;
+	public static final int UPGRADE_FRAMES = 120;
+	public static final int SETTLE_FRAMES = 60;
+	public static final float UPGRADE_RATIO = (float)0.6;
+	public static final float AVERAGE_WEIGHT = (float)0.1;
+
+	public static final float MESH_REDUCTION = (float)0.8;
+	public static final int MIN_MESH_SIZE = 6;
+
+	// environment attributes
+	private PApplet p;
+	private ImageCloth cloth;
+	private boolean enabled = true;
+
+	// the settings at full quality
+	private boolean drawMesh;
+	private boolean drawOutlines;
+	private boolean smooth;
+	private int maxSubsteps;
+	private int meshSize;
+	private int maxLevel;
+
+	// governor state
+	private float budget;
+	private float average = -1;
+	private int level = FULL;
+	private int overFrames;
+	private int underFrames;
+	private int settleFrames;
+	private int changeCount;
+
+	/**
+	 * Builds a QualityGovernor.
+	 * <p>The current display, substep and mesh settings of the cloth, and the smoothing of the
+	 * sketch, are taken as the full quality settings.</p>
+	 *
+	 * @param p the parent PApplet
+	 * @param cloth the cloth to govern
+	 * @param budget the target time per frame for stepping and drawing the cloth (in milliseconds)
+	 */
+	public QualityGovernor(PApplet p, ImageCloth cloth, float budget) {
+		this.p = p;
+		this.cloth = cloth;
+		this.budget = budget;
+
+		drawMesh = cloth.getDrawMesh();
+		drawOutlines = cloth.getDrawOutlines();
+		smooth = p.g.smooth;
+		maxSubsteps = cloth.getMaxSubsteps();
+		meshSize = cloth.getMeshSize();
+
+		// count the mesh reductions down to the smallest mesh
+		maxLevel = SMALLER_MESH-1;
+		for (int size = meshSize; size > MIN_MESH_SIZE; size = reduce(size)) {
+			maxLevel++;
+		}
+	}
+
+	/**
+	 * Measures the last frame and changes the quality level if needed.
+	 */
+	public void update() {
+		if (!enabled) return;
+
+		// follow the overlay toggles the governor does not hold off
+		if (level < NO_MESH) drawMesh = cloth.getDrawMesh();
+		if (level < NO_OUTLINES) drawOutlines = cloth.getDrawOutlines();
+
+		float frameTime = cloth.getLastStepTime()+cloth.getLastDrawTime();
+		if (cloth.getPhysicsThreadRunning()) {
+			// a physics step taking its whole period counts as a frame taking the whole budget
+			float period = 1000/cloth.getPhysicsRate();
+			frameTime = Math.max(frameTime, cloth.getLastPhysicsStepTime()/period*budget);
+		}
+		if (average < 0) average = frameTime;
+		else average += (frameTime-average)*AVERAGE_WEIGHT;
+
+		if (settleFrames > 0) {
+			settleFrames--;
+			return;
+		}
+
+		if (average > budget) {
+			underFrames = 0;
+			if (++overFrames >= DEGRADE_FRAMES && level < getMaxLevel()) setLevel(next(level, 1));
+		} else if (average < budget*UPGRADE_RATIO) {
+			overFrames = 0;
+			if (++underFrames >= UPGRADE_FRAMES && level > FULL) setLevel(next(level, -1));
+		} else {
+			overFrames = underFrames = 0;
+		}
+	}
+
+	/**
+	 * Applies a quality level to the cloth and the sketch.
+	 *
+	 * @param val the quality level, from FULL to getMaxLevel()
+	 */
+	public void setLevel(int val) {
+		val = Math.max(FULL, Math.min(getMaxLevel(), val));
+		// step over the substeps level when they do not matter, in the direction of the change
+		if (val == FEWER_SUBSTEPS && !governsSubsteps()) val = next(val, (val > level) ? 1 : -1);
+		if (val == level) return;
+
+		PApplet.println("QualityGovernor: level "+level+" -> "+val+" (frame "+PApplet.nf(average, 1, 2)+" ms, budget "+PApplet.nf(budget, 1, 2)+" ms)");
+		level = val;
+
+		cloth.setDrawMesh(drawMesh && level < NO_MESH);
+		cloth.setDrawOutlines(drawOutlines && level < NO_OUTLINES);
+		if (smooth && level < NO_SMOOTH) p.smooth();
+		else p.noSmooth();
+		// the cloth cannot see the smoothing change, make sure it gets drawn
+		cloth.invalidate();
+		cloth.setMaxSubsteps((level < FEWER_SUBSTEPS || !governsSubsteps()) ? maxSubsteps : Math.max(1, maxSubsteps/2));
+
+		int size = meshSize;
+		for (int l=SMALLER_MESH; l <= level; l++) {
+			size = reduce(size);
+		}
+		if (size != cloth.getMeshSize()) {
+			PApplet.println("QualityGovernor: mesh size "+cloth.getMeshSize()+" -> "+size);
+			cloth.setMeshSize(size);
+		}
+
+		// give the new settings time to show in the average
+		overFrames = underFrames = 0;
+		settleFrames = SETTLE_FRAMES;
+		changeCount++;
+	}
+
+	/**
+	 * Checks whether the substeps of the cloth can be traded for speed.
+	 */
+	private boolean governsSubsteps() {
+		return cloth.getTimeBased() && !cloth.getPhysicsThreadRunning();
+	}
+
+	/**
+	 * Gets the next level up or down the ladder, skipping the levels that do not apply.
+	 *
+	 * @param from the current level
+	 * @param direction 1 to degrade, -1 to upgrade
+	 */
+	private int next(int from, int direction) {
+		int val = from+direction;
+		if (val == FEWER_SUBSTEPS && !governsSubsteps()) val += direction;
+		return Math.max(FULL, Math.min(getMaxLevel(), val));
+	}
+
+	/**
+	 * Gets the next smaller mesh size.
+	 */
+	private static int reduce(int size) {
+		if (size <= MIN_MESH_SIZE) return size;
+		return Math.max(MIN_MESH_SIZE, Math.min(size-1, Math.round(size*MESH_REDUCTION)));
+	}
+
+	public int getLevel() { return level; }
+	public int getMaxLevel() { return (maxLevel == FEWER_SUBSTEPS && !governsSubsteps()) ? NO_SMOOTH : maxLevel; }
+	public int getChangeCount() { return changeCount; }
+	public float getAverageFrameTime() { return average; }
+	public void setBudget(float val) { budget = val; }
+	public float getBudget() { return budget; }
+	public void setEnabled(boolean val) { enabled = val; }
+	public boolean getEnabled() { return enabled; }
+}
@@ -0,0 +1,114 @@
+package facecloth;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a file of raw video frames, looping at the end.
+ * <p>The file holds the frames one after the other with no header, each one row after the
+ * other with 3 bytes per pixel, red, green and blue, like the rawvideo format with the rgb24
+ * pixel format of ffmpeg writes. The file is memory-mapped, so the frames are paged in from
+ * the disk cache by the operating system instead of being read into buffers, and unpacked
+ * straight into the buffers of the FrameExchange.</p>
+ * <p>A mapping holds at most 2GB, so larger files are mapped in pieces of whole frames.</p>
+ */
+/* $Id$ */
+public class RawFileSource implements FrameSource {
+	private int width;
+	private int height;
+	private float frameRate;
+	private int frameBytes;
+	private int frames;
+
+	// the file, mapped in pieces of framesPerPiece frames
+	private MappedByteBuffer[] pieces;
+	private int framesPerPiece;
+	private byte[] row;
+	private int frame;
+
+	private FrameThread thread;
+	private long frameCount;
+	private FrameThread.Producer producer = new FrameThread.Producer() {
+		public boolean publish(FrameExchange exchange) {
+			unpack(frame, exchange.getBackPixels(width, height));
+			exchange.publish();
+			frame = (frame+1) % frames;
+			return true;
+		}
+	};
+
+	/**
+	 * Builds a RawFileSource.
+	 *
+	 * @param path the path of the file
+	 * @param width the width of the frames (in pixels)
+	 * @param height the height of the frames (in pixels)
+	 * @param frameRate the number of frames per second, 0 publishes as fast as possible
+	 */
+	public RawFileSource(String path, int width, int height, float frameRate) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		frameBytes = width*height*3;
+		row = new byte[width*3];
+
+		try {
+			RandomAccessFile file = new RandomAccessFile(path, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				long length = channel.size();
+				if (length < frameBytes) throw new RuntimeException("RawFileSource: "+path+" does not hold a single "+width+"x"+height+" frame");
+				frames = (int)Math.min(Integer.MAX_VALUE, length/frameBytes);
+				framesPerPiece = Integer.MAX_VALUE/frameBytes;
+				pieces = new MappedByteBuffer[(frames+framesPerPiece-1)/framesPerPiece];
+				for (int n=0; n < pieces.length; n++) {
+					int count = Math.min(framesPerPiece, frames-n*framesPerPiece);
+					pieces[n] = channel.map(FileChannel.MapMode.READ_ONLY, (long)n*framesPerPiece*frameBytes, (long)count*frameBytes);
+				}
+			} finally {
+				// the mappings stay valid once the file is closed
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("RawFileSource: could not map "+path, e);
+		}
+	}
+
+	/**
+	 * Unpacks a frame of the file into ARGB pixels.
+	 */
+	private void unpack(int frame, int[] pixels) {
+		// only the source thread moves the positions of the mappings
+		ByteBuffer piece = pieces[frame/framesPerPiece];
+		piece.position((frame % framesPerPiece)*frameBytes);
+		int k = 0;
+		for (int y=0; y < height; y++) {
+			// one bulk copy per row rather than a call per byte
+			piece.get(row);
+			for (int b=0; b < row.length; b += 3) {
+				pixels[k++] = 0xff000000 | ((row[b] & 0xff) << 16) | ((row[b+1] & 0xff) << 8) | (row[b+2] & 0xff);
+			}
+		}
+	}
+
+	public void start(FrameExchange exchange) {
+		stop();
+		frameCount = 0;
+		thread = new FrameThread("RawFileSource", exchange, frameRate, producer);
+		thread.start();
+	}
+
+	public void stop() {
+		if (thread == null) return;
+		thread.finish();
+		frameCount = thread.frameCount;
+		thread = null;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public long getFrameCount() { return (thread == null) ? frameCount : thread.frameCount; }
+	public int getFrames() { return frames; }  // in the file
+	public float getFrameRate() { return frameRate; }
+}
@@ -0,0 +1,248 @@
+package facecloth;
+
+import java.nio.*;
+import javax.media.opengl.*;
+import processing.core.*;
+import processing.opengl.*;
+
+/**
+ * Draws the cloth from buffers kept on the graphics card.
+ * <p>The mesh is a single indexed triangle strip, one band of quads after the other, stitched
+ * together with degenerate triangles. The indices only depend on the grid size and the texture
+ * coordinates on the table the cloth keeps, so they are only uploaded when those change; every
+ * frame only the packed particle positions are streamed to the card. The mapped image is
+ * uploaded to an ImageTexture of its own whenever it is marked as modified, only the tiles
+ * that changed for the frames of a FrameExchange.</p>
+ * <p>This needs the OPENGL renderer and vertex buffer objects (OpenGL 1.5), and a non power of
+ * two texture (OpenGL 2.0). The outlines and handles are drawn like the PAppletRenderer does.</p>
+ * <p>The trail mode fades and draws through a pair of TrailBuffers.</p>
+ * <p>Bands the cloth culls are left out by drawing each run of visible bands as a range of the
+ * index buffer, so culling does not touch the buffers.</p>
+ */
+/* $Id$ */
+public class RetainedGLRenderer extends PAppletRenderer {
+	private PApplet p;
+
+	// buffer objects
+	private int[] buffers = new int[3];
+	private int positionBuffer;
+	private int uvBuffer;
+	private int indexBuffer;
+	private ImageTexture texture = new ImageTexture();
+	private TrailBuffers trail = new TrailBuffers();
+
+	// client side copies
+	private FloatBuffer positions;
+	private FloatBuffer uvs;
+	private int indexCount;
+
+	// what the buffers were built for
+	private int meshSize = -1;
+	private int uvVersion = -1;
+
+	/**
+	 * Builds a RetainedGLRenderer.
+	 *
+	 * @param p the parent PApplet, running the OPENGL renderer
+	 */
+	public RetainedGLRenderer(PApplet p) {
+		super(p);
+		this.p = p;
+	}
+
+	public void drawCloth(ImageCloth cloth, float[] x, float[] y, float[] z, int size) {
+		PImage image = cloth.getMappedImage();
+		// nothing to map before the first frame comes in
+		if (image.width == 0 || image.height == 0) return;
+
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+
+		if (buffers[0] == 0) {
+			gl.glGenBuffers(3, buffers, 0);
+			positionBuffer = buffers[0];
+			uvBuffer = buffers[1];
+			indexBuffer = buffers[2];
+		}
+		if (size != meshSize) buildMesh(gl, size);
+		if (cloth.getTextureVersion() != uvVersion) uploadUVs(gl, cloth);
+		texture.update(gl, image, cloth.getFrameExchange());
+		uploadPositions(gl, x, y, z);
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, positionBuffer);
+		gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, uvBuffer);
+		gl.glTexCoordPointer(2, GL.GL_FLOAT, 0, 0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getName());
+		gl.glColor4f(1, 1, 1, 1);
+		drawBands(gl, cloth.getVisibleBands(), meshSize);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glDisable(GL.GL_TEXTURE_2D);
+
+		if (cloth.getDrawMesh()) {
+			// draw the same strip again as a wireframe
+			int c = cloth.getForegroundColour();
+			gl.glColor4f(((c >> 16) & 0xff)/255f, ((c >> 8) & 0xff)/255f, (c & 0xff)/255f, ((c >> 24) & 0xff)/255f);
+			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_LINE);
+			drawBands(gl, cloth.getVisibleBands(), meshSize);
+			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
+		}
+
+		gl.glDisableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+		gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		pgl.endGL();
+	}
+
+	/**
+	 * Builds the static index buffer and sizes the position buffer for the cloth.
+	 * <p>The texture coordinates are sized here too, and filled by uploadUVs().</p>
+	 */
+	private void buildMesh(GL gl, int size) {
+		meshSize = size;
+		uvVersion = -1;
+		int count = meshSize*meshSize;
+
+		IntBuffer indices = stripIndices(meshSize);
+		indexCount = indices.capacity();
+
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexCount*4, indices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, uvBuffer);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, count*2*4, null, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, positionBuffer);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, count*3*4, null, GL.GL_STREAM_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		positions = ByteBuffer.allocateDirect(count*3*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		uvs = ByteBuffer.allocateDirect(count*2*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Expands the texture coordinate table of the cloth into the texture coordinate buffer.
+	 * <p>This only happens when the table changes, not every frame.</p>
+	 */
+	private void uploadUVs(GL gl, ImageCloth cloth) {
+		float[] u = cloth.getTextureU();
+		float[] v = cloth.getTextureV();
+		uvVersion = cloth.getTextureVersion();
+
+		uvs.rewind();
+		for (int i=0; i < meshSize; i++) {
+			for (int j=0; j < meshSize; j++) {
+				uvs.put(u[i]);
+				uvs.put(v[j]);
+			}
+		}
+		uvs.rewind();
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, uvBuffer);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, meshSize*meshSize*2*4, uvs);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Builds the indices of a grid drawn as a single triangle strip.
+	 * <p>There is one strip per band of quads between columns i and i+1, with two degenerate
+	 * indices between bands. Each band has an even number of indices, so every band keeps the
+	 * same winding.</p>
+	 *
+	 * @param size the number of rows and columns in the grid
+	 * @return the indices, ready to upload
+	 */
+	static IntBuffer stripIndices(int size) {
+		int bands = size-1;
+		IntBuffer indices = ByteBuffer.allocateDirect((bands*2*size + (bands-1)*2)*4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		for (int i=0; i < bands; i++) {
+			if (i > 0) {
+				// repeat the last index of the previous band and the first of this one
+				indices.put(i*size+size-1);
+				indices.put(i*size);
+			}
+			for (int j=0; j < size; j++) {
+				indices.put(i*size+j);
+				indices.put((i+1)*size+j);
+			}
+		}
+		indices.rewind();
+		return indices;
+	}
+
+	/**
+	 * Draws the visible bands of a strip built by stripIndices(), one draw call per run of bands.
+	 * <p>The element array buffer must be bound.</p>
+	 *
+	 * @param gl the OpenGL context
+	 * @param visible the visible bands, size-1 of them
+	 * @param size the number of rows and columns in the grid
+	 */
+	static void drawBands(GL gl, boolean[] visible, int size) {
+		// band i starts after i bands of 2*size indices and i pairs of degenerate indices
+		int bandLength = 2*size+2;
+		int bands = size-1;
+		for (int first=0; first < bands; first++) {
+			if (!visible[first]) continue;
+			int last = first;
+			while (last+1 < bands && visible[last+1]) last++;
+			gl.glDrawElements(GL.GL_TRIANGLE_STRIP, (last-first)*bandLength + 2*size, GL.GL_UNSIGNED_INT, (long)first*bandLength*4);
+			first = last;
+		}
+	}
+
+	/**
+	 * Packs the particle positions and streams them to the position buffer.
+	 */
+	private void uploadPositions(GL gl, float[] x, float[] y, float[] z) {
+		int count = meshSize*meshSize;
+
+		positions.rewind();
+		for (int k=0; k < count; k++) {
+			positions.put(x[k]);
+			positions.put(y[k]);
+			positions.put(z[k]);
+		}
+		positions.rewind();
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, positionBuffer);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, count*3*4, positions);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	public void beginTrail(ImageCloth cloth, float keep) {
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+		trail.begin(gl, p.width, p.height, keep);
+		pgl.endGL();
+	}
+
+	public void endTrail(ImageCloth cloth) {
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+		trail.end(gl);
+		pgl.endGL();
+	}
+
+	/**
+	 * Releases the buffers and the texture.
+	 * <p>Call this from the drawing thread, while the OpenGL context is current.</p>
+	 */
+	public void dispose() {
+		PGraphicsOpenGL pgl = (PGraphicsOpenGL)p.g;
+		GL gl = pgl.beginGL();
+		if (buffers[0] != 0) gl.glDeleteBuffers(3, buffers, 0);
+		texture.dispose(gl);
+		trail.dispose(gl);
+		pgl.endGL();
+
+		buffers[0] = buffers[1] = buffers[2] = 0;
+		meshSize = uvVersion = -1;
+	}
+}
@@ -0,0 +1,464 @@
+package facecloth;
+
+import processing.core.*;
+
+/**
+ * Draws the cloth into an ARGB framebuffer in plain Java, without a display or OpenGL.
+ * <p>Each frame, the mesh quads are split into two triangles each and binned into square tiles
+ * of the framebuffer. The tiles are then filled in parallel on a SolverPool; each tile draws its
+ * triangles in mesh order, so the image does not depend on the number of threads. Pixels are
+ * sampled from the mapped image with nearest-neighbour filtering. The outlines and handles are
+ * drawn on the calling thread. Bands the cloth culls are not binned. The trail mode fades a
+ * buffer of its own, so the framebuffer does not need to be cleared.</p>
+ * <p>Positions are projected like the default camera of the Processing 3D renderers, so points at
+ * z = 0 land on the same pixel as with the OPENGL renderer. Like OpenGL, the cloth is depth
+ * tested, a fragment only showing when it is strictly nearer than what the tile already holds,
+ * and its texture coordinates are interpolated in perspective, through 1/w. Triangles with a
+ * corner in front of the near plane of the default camera, at a tenth of the eye distance, are
+ * dropped where OpenGL would clip them. The outlines and handles are drawn over the cloth,
+ * without depth test.</p>
+ * <p>RenderRegression, with the benchmarks, compares a still with a reference image.</p>
+ * <p>To render without a window, build the ImageCloth with a PApplet that is never started, with
+ * its width and height set to the framebuffer size.</p>
+ */
+/* $Id$ */
+public class SoftwareRenderer implements ClothRenderer {
+	public static final int TILE_SIZE = 64;
+
+	// framebuffer
+	private int width;
+	private int height;
+	private int[] pixels;
+	private int tilesX;
+	private int tilesY;
+
+	// projection
+	private float eyeZ;
+	private float near;
+	private float[] sx = new float[0];
+	private float[] sy = new float[0];
+	// 1/w of the grid points, eyeZ/(eyeZ-z), or 0 in front of the near plane
+	private float[] sw = new float[0];
+
+	// depth buffer, the 1/w of the nearest fragment, cleared by each tile before it is filled
+	private float[] depth;
+
+	// texture coordinates of the grid points (in image pixels), expanded from the table of the cloth
+	private float[] u = new float[0];
+	private float[] v = new float[0];
+	private int uvSize = -1;
+	private int uvVersion = -1;
+
+	// triangles binned by tile, tile t spans tileTriangles[tileStart[t]] to tileTriangles[tileStart[t+1]]
+	private int[] tileStart;
+	private int[] tileFill;
+	private int[] tileTriangles = new int[0];
+
+	// the frame being drawn
+	private SolverPool pool;
+	private int size;
+	private boolean[] visible;
+	private int[] texture;
+	private int textureW;
+	private int textureH;
+	// trail mode, with 16 bits per channel, red, green and blue for every pixel
+	private static final int FADE = 0;
+	private static final int COLLECT = 1;
+	private char[] trail;
+	private int fadeKeep;
+	private int trailPass;
+	private SolverPool.Range trailTask = new SolverPool.Range() {
+		public void run(int from, int to) {
+			if (trailPass == FADE) fadeRows(from, to);
+			else collectRows(from, to);
+		}
+	};
+	private SolverPool.Range tileTask = new SolverPool.Range() {
+		public void run(int from, int to) {
+			for (int t=from; t < to; t++) {
+				drawTile(t);
+			}
+		}
+	};
+
+	/**
+	 * Builds a single-threaded SoftwareRenderer.
+	 *
+	 * @param width the width of the framebuffer
+	 * @param height the height of the framebuffer
+	 */
+	public SoftwareRenderer(int width, int height) {
+		this(width, height, null);
+	}
+
+	/**
+	 * Builds a SoftwareRenderer.
+	 *
+	 * @param width the width of the framebuffer
+	 * @param height the height of the framebuffer
+	 * @param pool the worker pool to fill the tiles on, or null to run on the calling thread
+	 */
+	public SoftwareRenderer(int width, int height, SolverPool pool) {
+		this.width = width;
+		this.height = height;
+		this.pool = pool;
+		pixels = new int[width*height];
+		depth = new float[width*height];
+
+		tilesX = (width+TILE_SIZE-1)/TILE_SIZE;
+		tilesY = (height+TILE_SIZE-1)/TILE_SIZE;
+		tileStart = new int[tilesX*tilesY+1];
+		tileFill = new int[tilesX*tilesY];
+
+		// the distance of the default Processing camera, with a 60 degree field of view
+		eyeZ = (float)((height/2.0)/Math.tan(Math.PI/6));
+		near = eyeZ/10;
+	}
+
+	/**
+	 * Fills the whole framebuffer with a colour.
+	 *
+	 * @param colour the ARGB colour
+	 */
+	public void clear(int colour) {
+		java.util.Arrays.fill(pixels, colour);
+	}
+
+	/**
+	 * Copies the framebuffer into an image of the same size.
+	 *
+	 * @param image the image to update
+	 */
+	public void copyTo(PImage image) {
+		image.loadPixels();
+		System.arraycopy(pixels, 0, image.pixels, 0, pixels.length);
+		image.updatePixels();
+	}
+
+	public void drawCloth(ImageCloth cloth, float[] x, float[] y, float[] z, int size) {
+		PImage image = cloth.getMappedImage();
+		if (image.pixels == null || image.width == 0 || image.height == 0) return;
+
+		this.size = size;
+		visible = cloth.getVisibleBands();
+		texture = image.pixels;
+		textureW = image.width;
+		textureH = image.height;
+
+		project(cloth, x, y, z, size);
+		binTriangles();
+
+		if (pool == null) tileTask.run(0, tilesX*tilesY);
+		else pool.run(0, tilesX*tilesY, 1, tileTask);
+
+		// the frame has been used, like the OpenGL renderers mark it once uploaded
+		image.setModified(false);
+		texture = null;
+	}
+
+	/**
+	 * Projects the grid points to the screen and works out their texture coordinates.
+	 * <p>The texture coordinates are only expanded again when the table of the cloth changes.</p>
+	 */
+	private void project(ImageCloth cloth, float[] x, float[] y, float[] z, int size) {
+		int count = size*size;
+		if (sx.length < count) {
+			sx = new float[count];
+			sy = new float[count];
+			sw = new float[count];
+			u = new float[count];
+			v = new float[count];
+			uvSize = -1;
+		}
+
+		for (int k=0; k < count; k++) {
+			sx[k] = projectX(x[k], z[k]);
+			sy[k] = projectY(y[k], z[k]);
+			sw[k] = (eyeZ-z[k] < near) ? 0 : eyeZ/(eyeZ-z[k]);
+		}
+
+		if (size != uvSize || cloth.getTextureVersion() != uvVersion) {
+			float[] tu = cloth.getTextureU();
+			float[] tv = cloth.getTextureV();
+			for (int i=0; i < size; i++) {
+				for (int j=0; j < size; j++) {
+					int k = i*size+j;
+					u[k] = tu[i]*textureW;
+					v[k] = tv[j]*textureH;
+				}
+			}
+			uvSize = size;
+			uvVersion = cloth.getTextureVersion();
+		}
+	}
+
+	private float projectX(float x, float z) { return width/(float)2 + (x-width/(float)2)*eyeZ/(eyeZ-z); }
+	private float projectY(float y, float z) { return height/(float)2 + (y-height/(float)2)*eyeZ/(eyeZ-z); }
+
+	/**
+	 * Sorts the triangles of the grid into the tiles their bounding boxes overlap.
+	 * <p>Triangle 2*q and 2*q+1 are the two halves of quad q. The tiles are counted first, then
+	 * filled, so the lists keep the mesh order. Triangles crossing the near plane are left out.</p>
+	 */
+	private void binTriangles() {
+		int triangles = 2*(size-1)*(size-1);
+		java.util.Arrays.fill(tileFill, 0);
+
+		// count, then fill
+		for (int pass=0; pass < 2; pass++) {
+			for (int t=0; t < triangles; t++) {
+				// leave out the bands the cloth culled
+				if (!visible[(t >> 1)/(size-1)]) continue;
+				int a = vertex(t, 0), b = vertex(t, 1), c = vertex(t, 2);
+				if (sw[a] == 0 || sw[b] == 0 || sw[c] == 0) continue;
+				int minX = tile(Math.min(sx[a], Math.min(sx[b], sx[c])), tilesX);
+				int maxX = tile(Math.max(sx[a], Math.max(sx[b], sx[c])), tilesX);
+				int minY = tile(Math.min(sy[a], Math.min(sy[b], sy[c])), tilesY);
+				int maxY = tile(Math.max(sy[a], Math.max(sy[b], sy[c])), tilesY);
+
+				for (int ty=minY; ty <= maxY; ty++) {
+					for (int tx=minX; tx <= maxX; tx++) {
+						int n = ty*tilesX+tx;
+						if (pass == 1) tileTriangles[tileStart[n]+tileFill[n]] = t;
+						tileFill[n]++;
+					}
+				}
+			}
+
+			if (pass == 0) {
+				for (int n=0; n < tileFill.length; n++) {
+					tileStart[n+1] = tileStart[n]+tileFill[n];
+				}
+				if (tileTriangles.length < tileStart[tileFill.length]) tileTriangles = new int[tileStart[tileFill.length]];
+				java.util.Arrays.fill(tileFill, 0);
+			}
+		}
+	}
+
+	/**
+	 * Gets the tile a coordinate falls into, clamped to the framebuffer.
+	 */
+	private static int tile(float c, int tiles) {
+		return Math.max(0, Math.min(tiles-1, (int)Math.floor(c/TILE_SIZE)));
+	}
+
+	/**
+	 * Gets a corner of a grid triangle.
+	 *
+	 * @param t the triangle
+	 * @param corner the corner, 0 to 2
+	 * @return the index of the grid point
+	 */
+	private int vertex(int t, int corner) {
+		int q = t >> 1;
+		int k = (q/(size-1))*size + q%(size-1);
+		if ((t & 1) == 0) {
+			// k, k+size, k+size+1
+			return (corner == 0) ? k : (corner == 1) ? k+size : k+size+1;
+		}
+		// k, k+size+1, k+1
+		return (corner == 0) ? k : (corner == 1) ? k+size+1 : k+1;
+	}
+
+	/**
+	 * Fills the triangles of a tile.
+	 */
+	private void drawTile(int n) {
+		int x0 = (n%tilesX)*TILE_SIZE;
+		int y0 = (n/tilesX)*TILE_SIZE;
+		int x1 = Math.min(x0+TILE_SIZE, width);
+		int y1 = Math.min(y0+TILE_SIZE, height);
+
+		// the tile only ever tests its own pixels, so the tiles share one buffer
+		for (int y=y0; y < y1; y++) {
+			java.util.Arrays.fill(depth, y*width+x0, y*width+x1, 0);
+		}
+
+		for (int e=tileStart[n]; e < tileStart[n+1]; e++) {
+			int t = tileTriangles[e];
+			int a = vertex(t, 0), b = vertex(t, 1), c = vertex(t, 2);
+			fillTriangle(sx[a], sy[a], sw[a], u[a], v[a], sx[b], sy[b], sw[b], u[b], v[b], sx[c], sy[c], sw[c], u[c], v[c],
+					0, true, x0, y0, x1, y1);
+		}
+	}
+
+	/**
+	 * Fills a triangle within a clipping rectangle, either with the mapped image or a flat colour.
+	 * <p>Pixels are covered when their centre lies inside the triangle or on its edges. 1/w, u/w
+	 * and v/w are linear across the screen, so they are interpolated and the texture coordinates
+	 * divided back out at each pixel. Only the textured fill is depth tested.</p>
+	 */
+	private void fillTriangle(float ax, float ay, float aw, float au, float av, float bx, float by, float bw, float bu, float bv,
+			float cx, float cy, float cw, float cu, float cv, int colour, boolean textured, int x0, int y0, int x1, int y1) {
+		float area = (bx-ax)*(cy-ay) - (by-ay)*(cx-ax);
+		if (area == 0 || Float.isNaN(area)) return;
+		if (area < 0) {
+			// make the winding counter-clockwise
+			float t;
+			t = bx; bx = cx; cx = t;
+			t = by; by = cy; cy = t;
+			t = bw; bw = cw; cw = t;
+			t = bu; bu = cu; cu = t;
+			t = bv; bv = cv; cv = t;
+			area = -area;
+		}
+
+		int minX = Math.max(x0, (int)Math.floor(Math.min(ax, Math.min(bx, cx))));
+		int maxX = Math.min(x1-1, (int)Math.ceil(Math.max(ax, Math.max(bx, cx))));
+		int minY = Math.max(y0, (int)Math.floor(Math.min(ay, Math.min(by, cy))));
+		int maxY = Math.min(y1-1, (int)Math.ceil(Math.max(ay, Math.max(by, cy))));
+		if (minX > maxX || minY > maxY) return;
+
+		// edge functions at the first pixel centre, and their steps along x and y
+		float px = minX+(float)0.5, py = minY+(float)0.5;
+		float wA = (cx-bx)*(py-by) - (cy-by)*(px-bx);
+		float wB = (ax-cx)*(py-cy) - (ay-cy)*(px-cx);
+		float wC = (bx-ax)*(py-ay) - (by-ay)*(px-ax);
+		float dAx = -(cy-by), dAy = cx-bx;
+		float dBx = -(ay-cy), dBy = ax-cx;
+		float dCx = -(by-ay), dCy = bx-ax;
+		float inv = 1/area;
+		// texture coordinates over w
+		float auw = au*aw, avw = av*aw;
+		float buw = bu*bw, bvw = bv*bw;
+		float cuw = cu*cw, cvw = cv*cw;
+
+		for (int y=minY; y <= maxY; y++) {
+			float eA = wA, eB = wB, eC = wC;
+			int row = y*width;
+			for (int x=minX; x <= maxX; x++) {
+				if (eA >= 0 && eB >= 0 && eC >= 0) {
+					if (textured) {
+						float sumW = eA*aw + eB*bw + eC*cw;
+						float w = sumW*inv;
+						// nearer is a larger 1/w, and a tie keeps the first fragment like GL_LESS
+						if (w > depth[row+x]) {
+							depth[row+x] = w;
+							float s = (eA*auw + eB*buw + eC*cuw)/sumW;
+							float t = (eA*avw + eB*bvw + eC*cvw)/sumW;
+							int tu = Math.max(0, Math.min(textureW-1, (int)s));
+							int tv = Math.max(0, Math.min(textureH-1, (int)t));
+							pixels[row+x] = texture[tv*textureW+tu] | 0xff000000;
+						}
+					} else {
+						pixels[row+x] = colour;
+					}
+				}
+				eA += dAx;
+				eB += dBx;
+				eC += dCx;
+			}
+			wA += dAy;
+			wB += dBy;
+			wC += dCy;
+		}
+	}
+
+	public void drawOutlines(ImageCloth cloth, float[] x, float[] y, float[] z, int size) {
+		int colour = cloth.getForegroundColour();
+		int last = size-1;
+
+		// horizontal lines
+		for (int i=0; i < size-1; i++) {
+			drawLine(x[i*size], y[i*size], z[i*size], x[(i+1)*size], y[(i+1)*size], z[(i+1)*size], colour);
+			drawLine(x[i*size+last], y[i*size+last], z[i*size+last], x[(i+1)*size+last], y[(i+1)*size+last], z[(i+1)*size+last], colour);
+		}
+
+		// vertical lines
+		for (int j=0; j < size-1; j++) {
+			drawLine(x[j], y[j], z[j], x[j+1], y[j+1], z[j+1], colour);
+			drawLine(x[last*size+j], y[last*size+j], z[last*size+j], x[last*size+j+1], y[last*size+j+1], z[last*size+j+1], colour);
+		}
+	}
+
+	/**
+	 * Draws a one pixel wide line.
+	 */
+	private void drawLine(float ax, float ay, float az, float bx, float by, float bz, int colour) {
+		if (eyeZ-az < near || eyeZ-bz < near) return;
+		float x0 = projectX(ax, az), y0 = projectY(ay, az);
+		float x1 = projectX(bx, bz), y1 = projectY(by, bz);
+		int steps = (int)Math.ceil(Math.max(Math.abs(x1-x0), Math.abs(y1-y0)));
+		if (steps > 4*(width+height)) return;
+
+		for (int s=0; s <= steps; s++) {
+			float f = (steps == 0) ? 0 : s/(float)steps;
+			int x = (int)Math.floor(x0 + (x1-x0)*f);
+			int y = (int)Math.floor(y0 + (y1-y0)*f);
+			if (x >= 0 && x < width && y >= 0 && y < height) pixels[y*width+x] = colour;
+		}
+	}
+
+	public void drawHandles(ImageCloth cloth, float[] x, float[] y, int[] colours) {
+		float[] t = HandleGlyph.TRIANGLES;
+		for (int h=0; h < x.length; h++) {
+			float hx = projectX(x[h], 0), hy = projectY(y[h], 0);
+			for (int n=0; n < t.length; n+=6) {
+				fillTriangle(hx+t[n], hy+t[n+1], 1, 0, 0, hx+t[n+2], hy+t[n+3], 1, 0, 0, hx+t[n+4], hy+t[n+5], 1, 0, 0,
+						colours[h], false, 0, 0, width, height);
+			}
+		}
+	}
+
+	/**
+	 * Fades the trail buffer and copies it into the framebuffer.
+	 * <p>The trail is kept apart from the framebuffer with 16 bits per channel, scaled in fixed
+	 * point and rounded down: at 8 bits, rounding would either lose a step every frame, making
+	 * the fade depend on the frame rate, or never reach black. Both passes run in parallel over
+	 * the rows.</p>
+	 */
+	public void beginTrail(ImageCloth cloth, float keep) {
+		if (trail == null) trail = new char[width*height*3];
+		fadeKeep = Math.round(Math.max(0, Math.min(1, keep))*32768);
+
+		trailPass = FADE;
+		if (pool == null) trailTask.run(0, height);
+		else pool.run(0, height, 8, trailTask);
+	}
+
+	/**
+	 * Copies the pixels the cloth covered back into the trail buffer.
+	 */
+	public void endTrail(ImageCloth cloth) {
+		trailPass = COLLECT;
+		if (pool == null) trailTask.run(0, height);
+		else pool.run(0, height, 8, trailTask);
+	}
+
+	/**
+	 * Fades a range of rows of the trail by fadeKeep/32768 and shows them.
+	 */
+	private void fadeRows(int from, int to) {
+		int keep = fadeKeep;
+		for (int n=from*width; n < to*width; n++) {
+			int t = n*3;
+			int r = trail[t] = (char)((trail[t]*keep) >>> 15);
+			int g = trail[t+1] = (char)((trail[t+1]*keep) >>> 15);
+			int b = trail[t+2] = (char)((trail[t+2]*keep) >>> 15);
+			pixels[n] = 0xff000000 | ((r >> 8) << 16) | ((g >> 8) << 8) | (b >> 8);
+		}
+	}
+
+	/**
+	 * Takes the pixels of a range of rows that no longer show the faded trail into the trail.
+	 */
+	private void collectRows(int from, int to) {
+		for (int n=from*width; n < to*width; n++) {
+			int t = n*3;
+			int c = pixels[n];
+			int faded = 0xff000000 | ((trail[t] >> 8) << 16) | ((trail[t+1] >> 8) << 8) | (trail[t+2] >> 8);
+			if (c == faded) continue;
+
+			// 255 becomes 65535
+			trail[t] = (char)(((c >> 16) & 0xff)*257);
+			trail[t+1] = (char)(((c >> 8) & 0xff)*257);
+			trail[t+2] = (char)((c & 0xff)*257);
+		}
+	}
+
+	public int[] getPixels() { return pixels; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public void setPool(SolverPool val) { pool = val; }
+	public SolverPool getPool() { return pool; }
+}
@@ -0,0 +1,132 @@
+package facecloth;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork-join pool that splits index ranges of the cloth mesh across worker threads.
+ * <p>The tasks are allocated once and reused, so running a range does not create garbage.
+ * A SolverPool must only be driven by one thread at a time.</p>
+ */
+/* $Id$ */
+public class SolverPool {
+	public static final int CHUNKS_PER_THREAD = 4;
+	public static final int MIN_CHUNK = 256;
+
+	/**
+	 * A piece of work over a range of indices.
+	 */
+	public interface Range {
+		/**
+		 * Runs the work for the given range.
+		 *
+		 * @param from the first index (inclusive)
+		 * @param to the last index (exclusive)
+		 */
+		public void run(int from, int to);
+	}
+
+	private int threads;
+	private ForkJoinPool pool;
+	private Chunk[] chunks;
+	private int chunkCount;
+	private Batch batch;
+
+	/**
+	 * Builds a SolverPool.
+	 *
+	 * @param threads the number of worker threads, 1 runs everything on the calling thread
+	 */
+	public SolverPool(int threads) {
+		this.threads = Math.max(1, threads);
+		if (this.threads > 1) pool = new ForkJoinPool(this.threads);
+
+		chunks = new Chunk[this.threads*CHUNKS_PER_THREAD];
+		for (int c=0; c < chunks.length; c++) {
+			chunks[c] = new Chunk();
+		}
+		batch = new Batch();
+	}
+
+	/**
+	 * Runs a piece of work over a range of indices and waits for it to complete.
+	 * <p>Small ranges run directly on the calling thread.</p>
+	 *
+	 * @param from the first index (inclusive)
+	 * @param to the last index (exclusive)
+	 * @param range the work to run
+	 */
+	public void run(int from, int to, Range range) {
+		run(from, to, MIN_CHUNK, range);
+	}
+
+	/**
+	 * Runs a piece of work over a range of indices and waits for it to complete.
+	 * <p>Use this for ranges of coarse work items, like image tiles, where even a few
+	 * indices are worth splitting.</p>
+	 *
+	 * @param from the first index (inclusive)
+	 * @param to the last index (exclusive)
+	 * @param minChunk the smallest number of indices worth handing to a thread
+	 * @param range the work to run
+	 */
+	public void run(int from, int to, int minChunk, Range range) {
+		int n = to-from;
+		minChunk = Math.max(1, minChunk);
+		if (pool == null || n < 2*minChunk) {
+			range.run(from, to);
+			return;
+		}
+
+		chunkCount = Math.min(chunks.length, n/minChunk);
+		for (int c=0; c < chunkCount; c++) {
+			chunks[c].from = from+(int)((long)n*c/chunkCount);
+			chunks[c].to = from+(int)((long)n*(c+1)/chunkCount);
+			chunks[c].range = range;
+			chunks[c].reinitialize();
+		}
+		batch.reinitialize();
+		pool.invoke(batch);
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		if (pool != null) pool.shutdown();
+	}
+
+	public int getThreads() { return threads; }
+
+	/**
+	 * Forks every chunk but the first, runs the first one and waits for the others.
+	 */
+	private class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected void compute() {
+			for (int c=1; c < chunkCount; c++) {
+				chunks[c].fork();
+			}
+			chunks[0].invoke();
+			for (int c=chunkCount-1; c > 0; c--) {
+				chunks[c].join();
+			}
+		}
+	}
+
+	/**
+	 * A single range of work.
+	 */
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		int from;
+		int to;
+		Range range;
+
+		protected void compute() {
+			range.run(from, to);
+		}
+	}
+}
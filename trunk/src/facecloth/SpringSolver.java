@@ -0,0 +1,371 @@
+package facecloth;
+
+/**
+ * A mass-spring solver working directly on the ClothMesh arrays.
+ * <p>The force model (gravity, drag and damped Hooke springs) and the default fourth-order
+ * Runge-Kutta integration follow the traer ParticleSystem that ImageCloth used to run on.
+ * Like traer, the solver can also integrate with modified Euler, and additionally with symplectic
+ * Euler. Both evaluate the forces once per step instead of four times, at the cost of a smaller
+ * stable time step.</p>
+ * <p>With a SolverPool, the particle passes are split across threads and the springs are
+ * applied one colour class at a time, so the result is identical to the single-threaded one.</p>
+ * <p>The inner loops run on the fastest ClothKernels available unless told otherwise.</p>
+ */
+/* $Id$ */
+public class SpringSolver implements ClothSolver {
+	// integrators
+	public static final int RUNGE_KUTTA = 0;
+	public static final int MODIFIED_EULER = 1;
+	public static final int SYMPLECTIC_EULER = 2;
+
+	// the fractions of their stability bounds the Euler integrators are run at, see getMaxStableStep()
+	public static final float MODIFIED_EULER_SAFETY = (float)0.08;
+	public static final float SYMPLECTIC_EULER_SAFETY = (float)0.75;
+
+	private static final ClothKernels SCALAR = new ClothKernels();
+
+	// particle passes
+	private static final int BEGIN = 0;
+	private static final int HALF_STEP_K1 = 1;
+	private static final int HALF_STEP_K2 = 2;
+	private static final int FULL_STEP_K3 = 3;
+	private static final int END = 4;
+	private static final int FORCES = 5;
+	private static final int MODIFIED_EULER_STEP = 6;
+	private static final int SYMPLECTIC_EULER_STEP = 7;
+
+	private int integrator;
+
+	// saved state
+	private float[] originalX, originalY, originalZ;
+	private float[] originalVX, originalVY, originalVZ;
+
+	// intermediate forces and velocities
+	private float[] k1FX, k1FY, k1FZ, k1VX, k1VY, k1VZ;
+	private float[] k2FX, k2FY, k2FZ, k2VX, k2VY, k2VZ;
+	private float[] k3FX, k3FY, k3FZ, k3VX, k3VY, k3VZ;
+
+	// inner loops
+	private ClothKernels kernels;
+
+	// the stability bounds of the last mesh asked about, and the springs they were worked out for
+	private ClothMesh boundMesh;
+	private int boundVersion;
+	private float modifiedBound;
+	private float symplecticBound;
+	private float[] stiffness = new float[0];
+	private float[] damping = new float[0];
+
+	// parallel execution
+	private SolverPool pool;
+	private ClothMesh mesh;
+	private float dt;
+	private int pass;
+	private SolverPool.Range particleTask = new SolverPool.Range() {
+		public void run(int from, int to) { runPass(from, to); }
+	};
+	private SolverPool.Range springTask = new SolverPool.Range() {
+		public void run(int from, int to) { kernels.springs(mesh, from, to); }
+	};
+
+	/**
+	 * Builds a single-threaded Runge-Kutta SpringSolver.
+	 */
+	public SpringSolver() {
+		this(RUNGE_KUTTA, null);
+	}
+
+	/**
+	 * Builds a single-threaded SpringSolver.
+	 *
+	 * @param integrator RUNGE_KUTTA, MODIFIED_EULER or SYMPLECTIC_EULER
+	 */
+	public SpringSolver(int integrator) {
+		this(integrator, null);
+	}
+
+	/**
+	 * Builds a Runge-Kutta SpringSolver.
+	 *
+	 * @param pool the worker pool to run on, or null to run on the calling thread
+	 */
+	public SpringSolver(SolverPool pool) {
+		this(RUNGE_KUTTA, pool);
+	}
+
+	/**
+	 * Builds a SpringSolver.
+	 *
+	 * @param integrator RUNGE_KUTTA, MODIFIED_EULER or SYMPLECTIC_EULER
+	 * @param pool the worker pool to run on, or null to run on the calling thread
+	 */
+	public SpringSolver(int integrator, SolverPool pool) {
+		setIntegrator(integrator);
+		this.pool = pool;
+		kernels = ClothKernels.load();
+		allocate(0);
+	}
+
+	/**
+	 * Advances the mesh by one step of the selected integrator.
+	 *
+	 * @param mesh the mesh to update
+	 * @param dt the length of the time step
+	 */
+	public void step(ClothMesh mesh, float dt) {
+		this.mesh = mesh;
+		this.dt = dt;
+
+		switch (integrator) {
+		case MODIFIED_EULER:
+			particles(FORCES);
+			springs();
+			particles(MODIFIED_EULER_STEP);
+			break;
+		case SYMPLECTIC_EULER:
+			particles(FORCES);
+			springs();
+			particles(SYMPLECTIC_EULER_STEP);
+			break;
+		default:
+			if (originalX.length < mesh.count) allocate(mesh.count);
+			rungeKutta();
+			break;
+		}
+
+		this.mesh = null;
+	}
+
+	/**
+	 * Runs one Runge-Kutta step.
+	 */
+	private void rungeKutta() {
+		// get the k1 values
+		particles(BEGIN);
+		springs();
+		// get the k2 values
+		particles(HALF_STEP_K1);
+		springs();
+		// get the k3 values
+		particles(HALF_STEP_K2);
+		springs();
+		// get the k4 values
+		particles(FULL_STEP_K3);
+		springs();
+		// put them all together
+		particles(END);
+	}
+
+	/**
+	 * Runs a particle pass over the whole mesh.
+	 *
+	 * @param p the pass to run
+	 */
+	private void particles(int p) {
+		pass = p;
+		if (pool == null) runPass(0, mesh.count);
+		else pool.run(0, mesh.count, particleTask);
+	}
+
+	/**
+	 * Applies the spring forces, one colour class at a time.
+	 */
+	private void springs() {
+		if (!mesh.isColoured()) {
+			// only the scalar kernel copes with springs sharing a particle
+			SCALAR.springs(mesh, 0, mesh.springCount);
+		} else if (pool == null) {
+			for (int c=0; c < mesh.colourCount; c++) {
+				kernels.springs(mesh, mesh.colourStart[c], mesh.colourStart[c+1]);
+			}
+		} else {
+			for (int c=0; c < mesh.colourCount; c++) {
+				pool.run(mesh.colourStart[c], mesh.colourStart[c+1], springTask);
+			}
+		}
+	}
+
+	/**
+	 * Runs the current particle pass over a range of particles.
+	 * <p>Every Runge-Kutta pass but the last one moves the particles to the next evaluation point
+	 * and resets their forces to gravity and drag, ready for the spring pass. The Euler integrators
+	 * only reset the forces, then move the particles once the springs are applied.</p>
+	 *
+	 * @param from the first particle (inclusive)
+	 * @param to the last particle (exclusive)
+	 */
+	private void runPass(int from, int to) {
+		switch (pass) {
+		case BEGIN:
+			// save the original positions and velocities
+			System.arraycopy(mesh.x, from, originalX, from, to-from);
+			System.arraycopy(mesh.y, from, originalY, from, to-from);
+			System.arraycopy(mesh.z, from, originalZ, from, to-from);
+			System.arraycopy(mesh.vx, from, originalVX, from, to-from);
+			System.arraycopy(mesh.vy, from, originalVY, from, to-from);
+			System.arraycopy(mesh.vz, from, originalVZ, from, to-from);
+			kernels.environment(mesh, from, to);
+			break;
+		case HALF_STEP_K1:
+			evaluateAt(from, to, k1FX, k1FY, k1FZ, k1VX, k1VY, k1VZ, 0.5f*dt);
+			break;
+		case HALF_STEP_K2:
+			evaluateAt(from, to, k2FX, k2FY, k2FZ, k2VX, k2VY, k2VZ, 0.5f*dt);
+			break;
+		case FULL_STEP_K3:
+			evaluateAt(from, to, k3FX, k3FY, k3FZ, k3VX, k3VY, k3VZ, dt);
+			break;
+		case END:
+			combine(from, to);
+			break;
+		case FORCES:
+			kernels.environment(mesh, from, to);
+			break;
+		case MODIFIED_EULER_STEP:
+			// x += v*dt + a*dt^2/2, then v += a*dt
+			kernels.offset(mesh.x, mesh.x, mesh.vx, dt, mesh.fixed, from, to);
+			kernels.offset(mesh.y, mesh.y, mesh.vy, dt, mesh.fixed, from, to);
+			kernels.offset(mesh.z, mesh.z, mesh.vz, dt, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.x, mesh.x, mesh.fx, 0.5f*dt*dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.y, mesh.y, mesh.fy, 0.5f*dt*dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.z, mesh.z, mesh.fz, 0.5f*dt*dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.vx, mesh.vx, mesh.fx, dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.vy, mesh.vy, mesh.fy, dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.vz, mesh.vz, mesh.fz, dt, mesh.mass, mesh.fixed, from, to);
+			break;
+		case SYMPLECTIC_EULER_STEP:
+			// v += a*dt, then x += v*dt with the new velocity
+			kernels.offsetByMass(mesh.vx, mesh.vx, mesh.fx, dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.vy, mesh.vy, mesh.fy, dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offsetByMass(mesh.vz, mesh.vz, mesh.fz, dt, mesh.mass, mesh.fixed, from, to);
+			kernels.offset(mesh.x, mesh.x, mesh.vx, dt, mesh.fixed, from, to);
+			kernels.offset(mesh.y, mesh.y, mesh.vy, dt, mesh.fixed, from, to);
+			kernels.offset(mesh.z, mesh.z, mesh.vz, dt, mesh.fixed, from, to);
+			break;
+		}
+	}
+
+	/**
+	 * Saves the current forces and velocities as k values and moves the free particles
+	 * to the next evaluation point.
+	 */
+	private void evaluateAt(int from, int to, float[] kFX, float[] kFY, float[] kFZ, float[] kVX, float[] kVY, float[] kVZ, float h) {
+		boolean[] fixed = mesh.fixed;
+		float[] mass = mesh.mass;
+		int n = to-from;
+
+		System.arraycopy(mesh.fx, from, kFX, from, n);
+		System.arraycopy(mesh.fy, from, kFY, from, n);
+		System.arraycopy(mesh.fz, from, kFZ, from, n);
+		System.arraycopy(mesh.vx, from, kVX, from, n);
+		System.arraycopy(mesh.vy, from, kVY, from, n);
+		System.arraycopy(mesh.vz, from, kVZ, from, n);
+
+		kernels.offset(mesh.x, originalX, kVX, h, fixed, from, to);
+		kernels.offset(mesh.y, originalY, kVY, h, fixed, from, to);
+		kernels.offset(mesh.z, originalZ, kVZ, h, fixed, from, to);
+		kernels.offsetByMass(mesh.vx, originalVX, kFX, h, mass, fixed, from, to);
+		kernels.offsetByMass(mesh.vy, originalVY, kFY, h, mass, fixed, from, to);
+		kernels.offsetByMass(mesh.vz, originalVZ, kFZ, h, mass, fixed, from, to);
+		kernels.environment(mesh, from, to);
+	}
+
+	/**
+	 * Combines the four k values into the final positions and velocities.
+	 */
+	private void combine(int from, int to) {
+		boolean[] fixed = mesh.fixed;
+		float[] mass = mesh.mass;
+
+		// the k4 values are the current forces and velocities
+		kernels.rungeKutta(mesh.x, originalX, k1VX, k2VX, k3VX, mesh.vx, dt, fixed, from, to);
+		kernels.rungeKutta(mesh.y, originalY, k1VY, k2VY, k3VY, mesh.vy, dt, fixed, from, to);
+		kernels.rungeKutta(mesh.z, originalZ, k1VZ, k2VZ, k3VZ, mesh.vz, dt, fixed, from, to);
+		kernels.rungeKuttaByMass(mesh.vx, originalVX, k1FX, k2FX, k3FX, mesh.fx, dt, mass, fixed, from, to);
+		kernels.rungeKuttaByMass(mesh.vy, originalVY, k1FY, k2FY, k3FY, mesh.fy, dt, mass, fixed, from, to);
+		kernels.rungeKuttaByMass(mesh.vz, originalVZ, k1FZ, k2FZ, k3FZ, mesh.fz, dt, mass, fixed, from, to);
+	}
+
+	/**
+	 * Allocates the scratch arrays.
+	 *
+	 * @param n the number of particles to make room for
+	 */
+	private void allocate(int n) {
+		originalX = new float[n]; originalY = new float[n]; originalZ = new float[n];
+		originalVX = new float[n]; originalVY = new float[n]; originalVZ = new float[n];
+		k1FX = new float[n]; k1FY = new float[n]; k1FZ = new float[n];
+		k1VX = new float[n]; k1VY = new float[n]; k1VZ = new float[n];
+		k2FX = new float[n]; k2FY = new float[n]; k2FZ = new float[n];
+		k2VX = new float[n]; k2VY = new float[n]; k2VZ = new float[n];
+		k3FX = new float[n]; k3FY = new float[n]; k3FZ = new float[n];
+		k3VX = new float[n]; k3VY = new float[n]; k3VZ = new float[n];
+	}
+
+	public void setIntegrator(int val) { integrator = (val == MODIFIED_EULER || val == SYMPLECTIC_EULER) ? val : RUNGE_KUTTA; }
+	public int getIntegrator() { return integrator; }
+
+	/**
+	 * Gets the largest time step the integrator stays stable at on a mesh.
+	 * <p>The Euler integrators are run at a fraction of the bounds worked out from the springs,
+	 * the masses and the drag of the mesh, see measureBounds(). The fractions leave a margin
+	 * for the modes the bounds do not see, like the sideways swing of the springs. With the
+	 * default ImageCloth springs, the limits are 0.05 for symplectic Euler and 0.01 for modified
+	 * Euler. Springs k times stiffer lower the first by about sqrt(k) and the second by about k.
+	 * The bounds are only worked out again when the springs change.</p>
+	 * <p>Runge-Kutta is stable at the default ImageCloth time step of 0.1, but not with much
+	 * stiffer springs, which need a VerletSolver or an ImplicitSolver.</p>
+	 *
+	 * @param mesh the mesh to be stepped
+	 * @return the largest stable time step, or 0 for Runge-Kutta
+	 */
+	public float getMaxStableStep(ClothMesh mesh) {
+		if (integrator == RUNGE_KUTTA) return 0;
+		if (mesh != boundMesh || mesh.springVersion != boundVersion) {
+			measureBounds(mesh);
+			boundMesh = mesh;
+			boundVersion = mesh.springVersion;
+		}
+		if (integrator == MODIFIED_EULER) return modifiedBound*MODIFIED_EULER_SAFETY;
+		return symplecticBound*SYMPLECTIC_EULER_SAFETY;
+	}
+
+	/**
+	 * Works out the largest time steps the Euler integrators are stable at on a mesh.
+	 * <p>A free particle of mass m held by springs of total strength K and total damping C, and
+	 * slowed by the drag D, oscillates at most at w^2 = 2K/m and is damped by at most
+	 * c = (2C+D)/m. On such a damped oscillator, symplectic Euler is stable while
+	 * w^2*dt^2 + 2*c*dt < 4, up to dt = (sqrt(c^2+4w^2)-c)/w^2, and modified Euler, which gains
+	 * energy without damping, while w^2*dt^2/2 < c*dt, up to dt = 2c/w^2. Each bound is the
+	 * smallest one over the free particles.</p>
+	 */
+	private void measureBounds(ClothMesh mesh) {
+		if (stiffness.length < mesh.count) {
+			stiffness = new float[mesh.count];
+			damping = new float[mesh.count];
+		}
+		java.util.Arrays.fill(stiffness, 0, mesh.count, 0);
+		java.util.Arrays.fill(damping, 0, mesh.count, 0);
+		for (int s=0; s < mesh.springCount; s++) {
+			int a = mesh.springA[s], b = mesh.springB[s];
+			stiffness[a] += mesh.springStrength[s];
+			stiffness[b] += mesh.springStrength[s];
+			damping[a] += mesh.springDamping[s];
+			damping[b] += mesh.springDamping[s];
+		}
+
+		modifiedBound = symplecticBound = Float.MAX_VALUE;
+		for (int k=0; k < mesh.count; k++) {
+			if (mesh.fixed[k] || mesh.mass[k] <= 0 || stiffness[k] <= 0) continue;
+			float w2 = 2*stiffness[k]/mesh.mass[k];
+			float c = (2*damping[k]+mesh.drag)/mesh.mass[k];
+			symplecticBound = Math.min(symplecticBound, ((float)Math.sqrt(c*c+4*w2)-c)/w2);
+			modifiedBound = Math.min(modifiedBound, 2*c/w2);
+		}
+	}
+
+	public void setKernels(ClothKernels val) { kernels = val; }
+	public ClothKernels getKernels() { return kernels; }
+	public void setPool(SolverPool val) { pool = val; }
+	public SolverPool getPool() { return pool; }
+}
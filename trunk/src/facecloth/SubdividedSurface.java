@@ -0,0 +1,139 @@
+package facecloth;
+
+/**
+ * A smooth surface through the points of a coarse mesh, sampled on a finer grid.
+ * <p>The surface is a bicubic Catmull-Rom patch over each cell of the mesh, so it goes through
+ * every mesh point (the handles stay exactly where they are) and its tangents are continuous
+ * across cells. The mesh is extended past its edges linearly, so a flat, evenly spaced mesh gives
+ * an evenly spaced grid and the texture does not swim near the edges. Each cell is split into
+ * subdivisions by subdivisions quads, giving a grid of (meshSize-1)*subdivisions+1 points a side
+ * laid out like the ClothMesh arrays.</p>
+ * <p>The evaluation is separable: the columns of the mesh are first subdivided along j, then the
+ * result along i, with the spline weights of every sub-step computed once. The output and
+ * scratch arrays are reused from one frame to the next.</p>
+ */
+/* $Id$ */
+public class SubdividedSurface {
+	private int subdivisions;
+
+	// spline weights of each sub-step
+	private float[] w0, w1, w2, w3;
+
+	// grid size and output
+	private int meshSize = -1;
+	private int size;
+	float[] x, y, z;
+
+	// mesh columns subdivided along j
+	private float[] tx, ty, tz;
+
+	/**
+	 * Builds a SubdividedSurface.
+	 *
+	 * @param subdivisions the number of quads per mesh cell side, at least 1
+	 */
+	public SubdividedSurface(int subdivisions) {
+		setSubdivisions(subdivisions);
+	}
+
+	/**
+	 * Evaluates the surface through the given mesh points.
+	 *
+	 * @param px the x-coordinates of the mesh points
+	 * @param py the y-coordinates of the mesh points
+	 * @param pz the z-coordinates of the mesh points
+	 * @param meshSize the number of rows and columns in the mesh
+	 */
+	public void evaluate(float[] px, float[] py, float[] pz, int meshSize) {
+		if (meshSize != this.meshSize) allocate(meshSize);
+
+		// subdivide every mesh column along j
+		for (int i=0; i < meshSize; i++) {
+			subdivide(px, tx, i*meshSize, 1, meshSize, i*size, 1);
+			subdivide(py, ty, i*meshSize, 1, meshSize, i*size, 1);
+			subdivide(pz, tz, i*meshSize, 1, meshSize, i*size, 1);
+		}
+
+		// then every row of the result along i
+		for (int j=0; j < size; j++) {
+			subdivide(tx, x, j, size, meshSize, j, size);
+			subdivide(ty, y, j, size, meshSize, j, size);
+			subdivide(tz, z, j, size, meshSize, j, size);
+		}
+	}
+
+	/**
+	 * Subdivides a line of control points into a line of size points.
+	 *
+	 * @param src the control points
+	 * @param dst the subdivided points
+	 * @param from the index of the first control point
+	 * @param stride the distance between control points
+	 * @param n the number of control points
+	 * @param to the index of the first subdivided point
+	 * @param dstStride the distance between subdivided points
+	 */
+	private void subdivide(float[] src, float[] dst, int from, int stride, int n, int to, int dstStride) {
+		for (int c=0; c < n-1; c++) {
+			// the four control points around cell c, extrapolated past the ends
+			float p1 = src[from + c*stride];
+			float p2 = src[from + (c+1)*stride];
+			float p0 = (c > 0) ? src[from + (c-1)*stride] : 2*p1-p2;
+			float p3 = (c+2 < n) ? src[from + (c+2)*stride] : 2*p2-p1;
+
+			int d = to + c*subdivisions*dstStride;
+			for (int s=0; s < subdivisions; s++) {
+				dst[d] = w0[s]*p0 + w1[s]*p1 + w2[s]*p2 + w3[s]*p3;
+				d += dstStride;
+			}
+		}
+		dst[to + (n-1)*subdivisions*dstStride] = src[from + (n-1)*stride];
+	}
+
+	/**
+	 * Allocates the grid for a mesh size.
+	 */
+	private void allocate(int meshSize) {
+		this.meshSize = meshSize;
+		size = (meshSize-1)*subdivisions+1;
+		x = new float[size*size];
+		y = new float[size*size];
+		z = new float[size*size];
+		tx = new float[meshSize*size];
+		ty = new float[meshSize*size];
+		tz = new float[meshSize*size];
+	}
+
+	/**
+	 * Sets the number of quads per mesh cell side.
+	 *
+	 * @param val the number of subdivisions, at least 1
+	 */
+	public void setSubdivisions(int val) {
+		val = Math.max(1, val);
+		if (val == subdivisions) return;
+		subdivisions = val;
+
+		// Catmull-Rom weights of p0..p3 at t = s/subdivisions
+		w0 = new float[val];
+		w1 = new float[val];
+		w2 = new float[val];
+		w3 = new float[val];
+		for (int s=0; s < val; s++) {
+			float t = s/(float)val;
+			float t2 = t*t;
+			float t3 = t2*t;
+			w0[s] = (float)0.5*(-t + 2*t2 - t3);
+			w1[s] = (float)0.5*(2 - 5*t2 + 3*t3);
+			w2[s] = (float)0.5*(t + 4*t2 - 3*t3);
+			w3[s] = (float)0.5*(-t2 + t3);
+		}
+		meshSize = -1;
+	}
+
+	public int getSubdivisions() { return subdivisions; }
+	public int getSize() { return size; }
+	public float[] getX() { return x; }
+	public float[] getY() { return y; }
+	public float[] getZ() { return z; }
+}
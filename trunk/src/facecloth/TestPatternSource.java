@@ -0,0 +1,80 @@
+package facecloth;
+
+/**
+ * Generates a moving test pattern, at any size and frame rate.
+ * <p>The pattern is a colour gradient under a checkerboard of eight squares across, which
+ * scrolls right and down by one pixel per frame. It is drawn straight into the buffers of the
+ * FrameExchange, so generating a frame costs one pass over its pixels and no allocation. With
+ * no frame rate, it publishes as fast as it can, which is what a soak test of the drawing side
+ * wants.</p>
+ */
+/* $Id$ */
+public class TestPatternSource implements FrameSource {
+	private int width;
+	private int height;
+	private float frameRate;
+	private int square;
+	private long frame;
+
+	private FrameThread thread;
+	private long frameCount;
+	private FrameThread.Producer producer = new FrameThread.Producer() {
+		public boolean publish(FrameExchange frames) {
+			draw(frames.getBackPixels(width, height), frame++);
+			frames.publish();
+			return true;
+		}
+	};
+
+	/**
+	 * Builds a TestPatternSource.
+	 *
+	 * @param width the width of the frames (in pixels)
+	 * @param height the height of the frames (in pixels)
+	 * @param frameRate the number of frames per second, 0 publishes as fast as possible
+	 */
+	public TestPatternSource(int width, int height, float frameRate) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		square = Math.max(1, width/8);
+	}
+
+	/**
+	 * Draws a frame of the pattern.
+	 */
+	private void draw(int[] pixels, long frame) {
+		// the pattern moves right and down by one pixel per frame
+		int shift = 2*square - (int)(frame % (2*square));
+		for (int y=0; y < height; y++) {
+			int green = y*255/Math.max(1, height-1);
+			boolean oddRow = (((y+shift)/square) & 1) != 0;
+			int row = y*width;
+			for (int x=0; x < width; x++) {
+				int red = x*255/Math.max(1, width-1);
+				// the dark squares halve the gradient and drop the blue
+				if (oddRow != ((((x+shift)/square) & 1) != 0)) pixels[row+x] = 0xff000000 | ((red >> 1) << 16) | ((green >> 1) << 8);
+				else pixels[row+x] = 0xff000000 | (red << 16) | (green << 8) | 0xff;
+			}
+		}
+	}
+
+	public void start(FrameExchange frames) {
+		stop();
+		frameCount = 0;
+		thread = new FrameThread("TestPatternSource", frames, frameRate, producer);
+		thread.start();
+	}
+
+	public void stop() {
+		if (thread == null) return;
+		thread.finish();
+		frameCount = thread.frameCount;
+		thread = null;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public long getFrameCount() { return (thread == null) ? frameCount : thread.frameCount; }
+	public float getFrameRate() { return frameRate; }
+}
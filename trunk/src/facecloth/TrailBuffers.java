@@ -0,0 +1,142 @@
+package facecloth;
+
+import javax.media.opengl.*;
+
+/**
+ * A pair of offscreen buffers the OpenGL renderers draw the trail mode into.
+ * <p>One buffer holds the frames drawn so far. Each frame, it is copied into the other one
+ * through a single textured quad, modulated by the fraction of its brightness to keep, and the
+ * cloth is then drawn on top. The new buffer is finally drawn to the screen and the two swap
+ * roles. No blending is involved, so the fade does not depend on the fill or blend state of
+ * the sketch.</p>
+ * <p>The buffers hold 16 bits per channel: with 8 bits, a slow fade rounds back to the same
+ * value and leaves a ghost of the old frames on the screen forever. This needs framebuffer
+ * objects (EXT_framebuffer_object).</p>
+ */
+/* $Id$ */
+class TrailBuffers {
+	private int[] textures = new int[2];
+	private int[] framebuffers = new int[2];
+	private int width = -1;
+	private int height = -1;
+
+	// the buffer holding the frames drawn so far
+	private int current;
+
+	/**
+	 * Fades the previous frames into the other buffer and makes it the drawing target.
+	 *
+	 * @param gl the current OpenGL context
+	 * @param width the width of the screen
+	 * @param height the height of the screen
+	 * @param keep the fraction of the previous frames' brightness to keep, from 0 to 1
+	 */
+	void begin(GL gl, int width, int height, float keep) {
+		if (width != this.width || height != this.height) allocate(gl, width, height);
+
+		int next = 1-current;
+		gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, framebuffers[next]);
+		drawQuad(gl, textures[current], keep);
+		current = next;
+	}
+
+	/**
+	 * Goes back to drawing on the screen and shows the buffer.
+	 *
+	 * @param gl the current OpenGL context
+	 */
+	void end(GL gl) {
+		gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, 0);
+		drawQuad(gl, textures[current], 1);
+	}
+
+	/**
+	 * Covers the whole target with a texture, modulated by a brightness.
+	 */
+	private void drawQuad(GL gl, int texture, float brightness) {
+		gl.glPushAttrib(GL.GL_ENABLE_BIT | GL.GL_TEXTURE_BIT | GL.GL_CURRENT_BIT);
+		gl.glDisable(GL.GL_BLEND);
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glDisable(GL.GL_LIGHTING);
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+		gl.glTexEnvi(GL.GL_TEXTURE_ENV, GL.GL_TEXTURE_ENV_MODE, GL.GL_MODULATE);
+		gl.glColor4f(brightness, brightness, brightness, 1);
+
+		gl.glMatrixMode(GL.GL_PROJECTION);
+		gl.glPushMatrix();
+		gl.glLoadIdentity();
+		gl.glMatrixMode(GL.GL_MODELVIEW);
+		gl.glPushMatrix();
+		gl.glLoadIdentity();
+
+		gl.glBegin(GL.GL_QUADS);
+		gl.glTexCoord2f(0, 0);
+		gl.glVertex2f(-1, -1);
+		gl.glTexCoord2f(1, 0);
+		gl.glVertex2f(1, -1);
+		gl.glTexCoord2f(1, 1);
+		gl.glVertex2f(1, 1);
+		gl.glTexCoord2f(0, 1);
+		gl.glVertex2f(-1, 1);
+		gl.glEnd();
+
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL.GL_PROJECTION);
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL.GL_MODELVIEW);
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glPopAttrib();
+	}
+
+	/**
+	 * Builds both buffers at the size of the screen, cleared to black.
+	 */
+	private void allocate(GL gl, int width, int height) {
+		dispose(gl);
+		this.width = width;
+		this.height = height;
+
+		gl.glGenTextures(2, textures, 0);
+		gl.glGenFramebuffersEXT(2, framebuffers, 0);
+		gl.glPushAttrib(GL.GL_COLOR_BUFFER_BIT);
+		gl.glClearColor(0, 0, 0, 1);
+		for (int b=0; b < 2; b++) {
+			gl.glBindTexture(GL.GL_TEXTURE_2D, textures[b]);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA16, width, height, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+			gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+			gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, framebuffers[b]);
+			gl.glFramebufferTexture2DEXT(GL.GL_FRAMEBUFFER_EXT, GL.GL_COLOR_ATTACHMENT0_EXT, GL.GL_TEXTURE_2D, textures[b], 0);
+			int status = gl.glCheckFramebufferStatusEXT(GL.GL_FRAMEBUFFER_EXT);
+			if (status != GL.GL_FRAMEBUFFER_COMPLETE_EXT) {
+				gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, 0);
+				gl.glPopAttrib();
+				dispose(gl);
+				throw new RuntimeException("TrailBuffers: the offscreen buffer is not complete (status 0x"+Integer.toHexString(status)+")");
+			}
+			gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+		}
+		gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, 0);
+		gl.glPopAttrib();
+		current = 0;
+	}
+
+	/**
+	 * Releases the buffers.
+	 *
+	 * @param gl the current OpenGL context
+	 */
+	void dispose(GL gl) {
+		if (framebuffers[0] != 0) gl.glDeleteFramebuffersEXT(2, framebuffers, 0);
+		if (textures[0] != 0) gl.glDeleteTextures(2, textures, 0);
+		framebuffers[0] = framebuffers[1] = 0;
+		textures[0] = textures[1] = 0;
+		width = height = -1;
+	}
+}
@@ -0,0 +1,77 @@
+package facecloth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest of a stream of values from one thread to another without locking.
+ * <p>There are three slots: the producer fills the back slot and publishes it by swapping it
+ * with the middle one, and the consumer takes the middle slot by swapping it with its front
+ * slot. Each swap is a single atomic exchange, so neither side ever waits for the other; the
+ * producer may publish many values between two reads, and the consumer only sees the last.</p>
+ * <p>The slots are reused, so a value must be fully written before it is published and must not
+ * be kept by the consumer after its next call to update(). There must be exactly one producer
+ * thread and one consumer thread.</p>
+ */
+/* $Id$ */
+public class TripleBuffer<T> {
+	// set in the middle index when it holds a value the consumer has not taken yet
+	private static final int FRESH = 4;
+	private static final int INDEX = 3;
+
+	private final Object[] slots;
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int back = 0;
+	private int front = 2;
+
+	/**
+	 * Builds a TripleBuffer over three slots.
+	 * <p>The consumer starts out reading the third one.</p>
+	 *
+	 * @param a the first slot
+	 * @param b the second slot
+	 * @param c the third slot
+	 */
+	public TripleBuffer(T a, T b, T c) {
+		slots = new Object[] { a, b, c };
+	}
+
+	/**
+	 * Gets the slot the producer writes to.
+	 *
+	 * @return the back slot
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBack() {
+		return (T)slots[back];
+	}
+
+	/**
+	 * Publishes the back slot and gives the producer another one to write to.
+	 * <p>Call this from the producer thread once the back slot is complete.</p>
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/**
+	 * Takes the last published slot, if there is one the consumer has not seen yet.
+	 * <p>Call this from the consumer thread.</p>
+	 *
+	 * @return true if the front slot changed
+	 */
+	public boolean update() {
+		if ((middle.get() & FRESH) == 0) return false;
+		front = middle.getAndSet(front) & INDEX;
+		return true;
+	}
+
+	/**
+	 * Gets the slot the consumer reads from.
+	 *
+	 * @return the front slot
+	 */
+	@SuppressWarnings("unchecked")
+	public T getFront() {
+		return (T)slots[front];
+	}
+}
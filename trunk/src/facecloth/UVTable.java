@@ -0,0 +1,57 @@
+package facecloth;
+
+/**
+ * The texture coordinates of the points of a grid, normalized to the mapped image.
+ * <p>The coordinates are separable: every point in column i has the same u and every point in
+ * row j the same v, so the table only holds one u per column and one v per row. It is rebuilt
+ * when the grid size, the part of the image covered or the image size changes, and the version
+ * goes up each time, so the renderers can tell when to rebuild what they derive from it.</p>
+ */
+/* $Id$ */
+class UVTable {
+	float[] u = new float[0];
+	float[] v = new float[0];
+
+	// bumped every time the table is rebuilt
+	int version;
+
+	// what the table was built for
+	private int size = -1;
+	private float textureW = -1;
+	private float textureH = -1;
+	private int imageW = -1;
+	private int imageH = -1;
+
+	/**
+	 * Rebuilds the table if anything it depends on changed.
+	 *
+	 * @param size the number of rows and columns in the grid
+	 * @param textureW the width of the part of the image the grid covers (in pixels)
+	 * @param textureH the height of the part of the image the grid covers (in pixels)
+	 * @param imageW the width of the image (in pixels)
+	 * @param imageH the height of the image (in pixels)
+	 * @return true if the table was rebuilt
+	 */
+	boolean update(int size, float textureW, float textureH, int imageW, int imageH) {
+		if (size == this.size && textureW == this.textureW && textureH == this.textureH && imageW == this.imageW && imageH == this.imageH) return false;
+		this.size = size;
+		this.textureW = textureW;
+		this.textureH = textureH;
+		this.imageW = imageW;
+		this.imageH = imageH;
+
+		if (u.length != size) {
+			u = new float[size];
+			v = new float[size];
+		}
+		// no image yet, map as if it were one pixel wide so the coordinates stay finite
+		float stepU = textureW/((size-1)*(float)Math.max(1, imageW));
+		float stepV = textureH/((size-1)*(float)Math.max(1, imageH));
+		for (int i=0; i < size; i++) {
+			u[i] = i*stepU;
+			v[i] = i*stepV;
+		}
+		version++;
+		return true;
+	}
+}
@@ -0,0 +1,191 @@
+package facecloth;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The cloth solver kernels vectorised with the Java Vector API.
+ * <p>The lanes do exactly the arithmetic of the scalar kernels, in the same order, and the loop
+ * tails are handed to the scalar code. Springs are gathered and scattered through their end point
+ * indices, which is only safe because a colour class never touches a particle twice. Unlike the
+ * scalar kernel, the spring kernel also accumulates forces on fixed particles; the integrators
+ * never read them.</p>
+ * <p>This class needs the incubator module at compile and run time
+ * (--add-modules jdk.incubator.vector). Use {@link ClothKernels#load()} rather than building it
+ * directly, so that JVMs without the module fall back to the scalar kernels.</p>
+ */
+/* $Id$ */
+public class VectorKernels extends ClothKernels {
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	public String getName() {
+		return "vector x"+LANES;
+	}
+
+	public void environment(ClothMesh mesh, int from, int to) {
+		float g = mesh.gravity;
+		float d = -mesh.drag;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		float[] fx = mesh.fx, fy = mesh.fy, fz = mesh.fz;
+
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			FloatVector.fromArray(SPECIES, vx, k).mul(d).intoArray(fx, k);
+			FloatVector.fromArray(SPECIES, vy, k).mul(d).add(g).intoArray(fy, k);
+			FloatVector.fromArray(SPECIES, vz, k).mul(d).intoArray(fz, k);
+		}
+		super.environment(mesh, k, to);
+	}
+
+	public void springs(ClothMesh mesh, int from, int to) {
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		float[] fx = mesh.fx, fy = mesh.fy, fz = mesh.fz;
+		int[] springA = mesh.springA;
+		int[] springB = mesh.springB;
+
+		int s = from;
+		for (; s <= to-LANES; s += LANES) {
+			FloatVector a2bX = FloatVector.fromArray(SPECIES, x, 0, springA, s).sub(FloatVector.fromArray(SPECIES, x, 0, springB, s));
+			FloatVector a2bY = FloatVector.fromArray(SPECIES, y, 0, springA, s).sub(FloatVector.fromArray(SPECIES, y, 0, springB, s));
+			FloatVector a2bZ = FloatVector.fromArray(SPECIES, z, 0, springA, s).sub(FloatVector.fromArray(SPECIES, z, 0, springB, s));
+			FloatVector a2bDistance = a2bX.mul(a2bX).add(a2bY.mul(a2bY)).add(a2bZ.mul(a2bZ)).lanewise(VectorOperators.SQRT);
+
+			// springs of zero length have no direction
+			VectorMask<Float> zero = a2bDistance.eq(0);
+			a2bX = a2bX.div(a2bDistance).blend(0, zero);
+			a2bY = a2bY.div(a2bDistance).blend(0, zero);
+			a2bZ = a2bZ.div(a2bDistance).blend(0, zero);
+
+			FloatVector dVX = FloatVector.fromArray(SPECIES, vx, 0, springA, s).sub(FloatVector.fromArray(SPECIES, vx, 0, springB, s));
+			FloatVector dVY = FloatVector.fromArray(SPECIES, vy, 0, springA, s).sub(FloatVector.fromArray(SPECIES, vy, 0, springB, s));
+			FloatVector dVZ = FloatVector.fromArray(SPECIES, vz, 0, springA, s).sub(FloatVector.fromArray(SPECIES, vz, 0, springB, s));
+
+			FloatVector springForce = a2bDistance.sub(FloatVector.fromArray(SPECIES, mesh.springRest, s)).neg().mul(FloatVector.fromArray(SPECIES, mesh.springStrength, s));
+			FloatVector dampingForce = FloatVector.fromArray(SPECIES, mesh.springDamping, s).neg().mul(a2bX.mul(dVX).add(a2bY.mul(dVY)).add(a2bZ.mul(dVZ)));
+			FloatVector r = springForce.add(dampingForce);
+			a2bX = a2bX.mul(r);
+			a2bY = a2bY.mul(r);
+			a2bZ = a2bZ.mul(r);
+
+			FloatVector.fromArray(SPECIES, fx, 0, springA, s).add(a2bX).intoArray(fx, 0, springA, s);
+			FloatVector.fromArray(SPECIES, fy, 0, springA, s).add(a2bY).intoArray(fy, 0, springA, s);
+			FloatVector.fromArray(SPECIES, fz, 0, springA, s).add(a2bZ).intoArray(fz, 0, springA, s);
+			FloatVector.fromArray(SPECIES, fx, 0, springB, s).sub(a2bX).intoArray(fx, 0, springB, s);
+			FloatVector.fromArray(SPECIES, fy, 0, springB, s).sub(a2bY).intoArray(fy, 0, springB, s);
+			FloatVector.fromArray(SPECIES, fz, 0, springB, s).sub(a2bZ).intoArray(fz, 0, springB, s);
+		}
+		super.springs(mesh, s, to);
+	}
+
+	public void offset(float[] dst, float[] base, float[] delta, float h, boolean[] fixed, int from, int to) {
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			VectorMask<Float> free = VectorMask.fromArray(SPECIES, fixed, k).not();
+			FloatVector.fromArray(SPECIES, delta, k).mul(h).add(FloatVector.fromArray(SPECIES, base, k)).intoArray(dst, k, free);
+		}
+		super.offset(dst, base, delta, h, fixed, k, to);
+	}
+
+	public void offsetByMass(float[] dst, float[] base, float[] force, float h, float[] mass, boolean[] fixed, int from, int to) {
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			VectorMask<Float> free = VectorMask.fromArray(SPECIES, fixed, k).not();
+			FloatVector.fromArray(SPECIES, force, k).mul(h).div(FloatVector.fromArray(SPECIES, mass, k))
+					.add(FloatVector.fromArray(SPECIES, base, k)).intoArray(dst, k, free);
+		}
+		super.offsetByMass(dst, base, force, h, mass, fixed, k, to);
+	}
+
+	public void rungeKutta(float[] dst, float[] base, float[] k1, float[] k2, float[] k3, float[] k4, float dt, boolean[] fixed, int from, int to) {
+		float h = dt/6.0f;
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			VectorMask<Float> free = VectorMask.fromArray(SPECIES, fixed, k).not();
+			weighted(k1, k2, k3, k4, k).mul(h).add(FloatVector.fromArray(SPECIES, base, k)).intoArray(dst, k, free);
+		}
+		super.rungeKutta(dst, base, k1, k2, k3, k4, dt, fixed, k, to);
+	}
+
+	public void rungeKuttaByMass(float[] dst, float[] base, float[] k1, float[] k2, float[] k3, float[] k4, float dt, float[] mass, boolean[] fixed, int from, int to) {
+		FloatVector vdt = FloatVector.broadcast(SPECIES, dt);
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			VectorMask<Float> free = VectorMask.fromArray(SPECIES, fixed, k).not();
+			FloatVector h = vdt.div(FloatVector.fromArray(SPECIES, mass, k).mul(6.0f));
+			h.mul(weighted(k1, k2, k3, k4, k)).add(FloatVector.fromArray(SPECIES, base, k)).intoArray(dst, k, free);
+		}
+		super.rungeKuttaByMass(dst, base, k1, k2, k3, k4, dt, mass, fixed, k, to);
+	}
+
+	/**
+	 * Gets k1 + 2*k2 + 2*k3 + k4 for one vector of particles.
+	 */
+	private static FloatVector weighted(float[] k1, float[] k2, float[] k3, float[] k4, int k) {
+		return FloatVector.fromArray(SPECIES, k1, k)
+				.add(FloatVector.fromArray(SPECIES, k2, k).mul(2.0f))
+				.add(FloatVector.fromArray(SPECIES, k3, k).mul(2.0f))
+				.add(FloatVector.fromArray(SPECIES, k4, k));
+	}
+
+	public void verletPredict(ClothMesh mesh, float[] px, float[] py, float[] pz, float dt, int from, int to) {
+		float g = mesh.gravity;
+		float d = -mesh.drag;
+		boolean[] fixed = mesh.fixed;
+		float[] x = mesh.x, y = mesh.y, z = mesh.z;
+		float[] vx = mesh.vx, vy = mesh.vy, vz = mesh.vz;
+		FloatVector vdt = FloatVector.broadcast(SPECIES, dt);
+
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			VectorMask<Float> pinned = VectorMask.fromArray(SPECIES, fixed, k);
+			VectorMask<Float> free = pinned.not();
+			FloatVector s = vdt.div(FloatVector.fromArray(SPECIES, mesh.mass, k));
+
+			FloatVector v = FloatVector.fromArray(SPECIES, vx, k);
+			v = v.add(v.mul(d).mul(s));
+			v.intoArray(vx, k, free);
+			FloatVector p = FloatVector.fromArray(SPECIES, x, k);
+			p.add(v.mul(dt)).blend(p, pinned).intoArray(px, k);
+
+			v = FloatVector.fromArray(SPECIES, vy, k);
+			v = v.add(v.mul(d).add(g).mul(s));
+			v.intoArray(vy, k, free);
+			p = FloatVector.fromArray(SPECIES, y, k);
+			p.add(v.mul(dt)).blend(p, pinned).intoArray(py, k);
+
+			v = FloatVector.fromArray(SPECIES, vz, k);
+			v = v.add(v.mul(d).mul(s));
+			v.intoArray(vz, k, free);
+			p = FloatVector.fromArray(SPECIES, z, k);
+			p.add(v.mul(dt)).blend(p, pinned).intoArray(pz, k);
+		}
+		super.verletPredict(mesh, px, py, pz, dt, k, to);
+	}
+
+	public void verletUpdate(ClothMesh mesh, float[] px, float[] py, float[] pz, float dt, int from, int to) {
+		boolean[] fixed = mesh.fixed;
+		float invDt = 1/dt;
+
+		int k = from;
+		for (; k <= to-LANES; k += LANES) {
+			VectorMask<Float> free = VectorMask.fromArray(SPECIES, fixed, k).not();
+			update(mesh.x, mesh.vx, px, invDt, free, k);
+			update(mesh.y, mesh.vy, py, invDt, free, k);
+			update(mesh.z, mesh.vz, pz, invDt, free, k);
+		}
+		super.verletUpdate(mesh, px, py, pz, dt, k, to);
+	}
+
+	/**
+	 * Commits one coordinate of the corrected positions of a vector of particles.
+	 */
+	private static void update(float[] c, float[] v, float[] p, float invDt, VectorMask<Float> free, int k) {
+		FloatVector corrected = FloatVector.fromArray(SPECIES, p, k);
+		corrected.sub(FloatVector.fromArray(SPECIES, c, k)).mul(invDt).intoArray(v, k, free);
+		corrected.intoArray(c, k, free);
+	}
+}
@@ -0,0 +1,146 @@
+package facecloth;
+
+/**
+ * A position-based cloth solver.
+ * <p>Each step predicts the particle positions with a Verlet update, then relaxes every spring
+ * towards its rest length as a distance constraint for a fixed number of iterations. Velocities
+ * are recovered from the corrected positions, so the step stays stable at any spring stiffness
+ * and time step, at the cost of one cheap pass over the springs per iteration.</p>
+ * <p>With a SolverPool, the constraints are relaxed one colour class at a time across the
+ * worker threads, in the same order as the single-threaded solver, so both give the same result.</p>
+ * <p>The prediction and update passes run on the fastest ClothKernels available unless told otherwise.</p>
+ */
+/* $Id$ */
+public class VerletSolver implements ClothSolver {
+	public static final int DEFAULT_ITERATIONS = 8;
+
+	private int iterations;
+	private float stiffness;
+
+	// predicted positions
+	private float[] px;
+	private float[] py;
+	private float[] pz;
+
+	// inner loops
+	private ClothKernels kernels;
+
+	// parallel execution
+	private SolverPool pool;
+	private ClothMesh mesh;
+	private float dt;
+	private SolverPool.Range predictTask = new SolverPool.Range() {
+		public void run(int from, int to) { kernels.verletPredict(mesh, px, py, pz, dt, from, to); }
+	};
+	private SolverPool.Range relaxTask = new SolverPool.Range() {
+		public void run(int from, int to) { relax(mesh, from, to); }
+	};
+	private SolverPool.Range updateTask = new SolverPool.Range() {
+		public void run(int from, int to) { kernels.verletUpdate(mesh, px, py, pz, dt, from, to); }
+	};
+
+	/**
+	 * Builds a VerletSolver with the default number of iterations and full stiffness.
+	 */
+	public VerletSolver() {
+		this(DEFAULT_ITERATIONS, 1);
+	}
+
+	/**
+	 * Builds a VerletSolver.
+	 *
+	 * @param iterations the number of constraint relaxation passes per step
+	 * @param stiffness the fraction of each constraint error corrected per pass, between 0 and 1
+	 */
+	public VerletSolver(int iterations, float stiffness) {
+		setIterations(iterations);
+		setStiffness(stiffness);
+		kernels = ClothKernels.load();
+
+		px = new float[0];
+		py = new float[0];
+		pz = new float[0];
+	}
+
+	/**
+	 * Advances the mesh by one time step.
+	 *
+	 * @param mesh the mesh to update
+	 * @param dt the length of the time step
+	 */
+	public void step(ClothMesh mesh, float dt) {
+		if (px.length < mesh.count) {
+			px = new float[mesh.count];
+			py = new float[mesh.count];
+			pz = new float[mesh.count];
+		}
+
+		if (pool == null) {
+			kernels.verletPredict(mesh, px, py, pz, dt, 0, mesh.count);
+			for (int it=0; it < iterations; it++) {
+				relax(mesh, 0, mesh.springCount);
+			}
+			kernels.verletUpdate(mesh, px, py, pz, dt, 0, mesh.count);
+			return;
+		}
+
+		this.mesh = mesh;
+		this.dt = dt;
+		pool.run(0, mesh.count, predictTask);
+		for (int it=0; it < iterations; it++) {
+			if (mesh.isColoured()) {
+				for (int c=0; c < mesh.colourCount; c++) {
+					pool.run(mesh.colourStart[c], mesh.colourStart[c+1], relaxTask);
+				}
+			} else {
+				relax(mesh, 0, mesh.springCount);
+			}
+		}
+		pool.run(0, mesh.count, updateTask);
+		this.mesh = null;
+	}
+
+	/**
+	 * Runs one relaxation pass over a range of spring constraints.
+	 */
+	private void relax(ClothMesh mesh, int from, int to) {
+		boolean[] fixed = mesh.fixed;
+		float[] mass = mesh.mass;
+		int[] springA = mesh.springA;
+		int[] springB = mesh.springB;
+		float[] rest = mesh.springRest;
+
+		for (int s=from; s < to; s++) {
+			int a = springA[s];
+			int b = springB[s];
+			float wA = fixed[a] ? 0 : 1/mass[a];
+			float wB = fixed[b] ? 0 : 1/mass[b];
+			float w = wA+wB;
+			if (w == 0) continue;
+
+			float dX = px[a]-px[b];
+			float dY = py[a]-py[b];
+			float dZ = pz[a]-pz[b];
+			float dist = (float)Math.sqrt(dX*dX + dY*dY + dZ*dZ);
+			if (dist == 0) continue;
+
+			// move both ends along the spring, in inverse proportion to their mass
+			float c = stiffness*(dist-rest[s])/(dist*w);
+			px[a] -= dX*c*wA;
+			py[a] -= dY*c*wA;
+			pz[a] -= dZ*c*wA;
+			px[b] += dX*c*wB;
+			py[b] += dY*c*wB;
+			pz[b] += dZ*c*wB;
+		}
+	}
+
+	public void setIterations(int val) { iterations = Math.max(1, val); }
+	public int getIterations() { return iterations; }
+	public void setStiffness(float val) { stiffness = Math.max(0, Math.min(1, val)); }
+	public float getStiffness() { return stiffness; }
+	public void setKernels(ClothKernels val) { kernels = val; }
+	public ClothKernels getKernels() { return kernels; }
+	public void setPool(SolverPool val) { pool = val; }
+	public SolverPool getPool() { return pool; }
+}